@@ -0,0 +1,132 @@
+package com.github.simbo1905.rootobjects;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reads tables and indexes of an embedded Derby database at startup so that their pages are in the Derby page cache
+ * before the first request arrives. Whole tables are read by scanning every row. Indexes are read by counting the
+ * rows of their table with an optimizer override that forces the count to be done by scanning the index. For this to
+ * be worth while the page cache must be sized to hold the pages that are preloaded.
+ *
+ * The page cache is sized with database properties that are stored in the database rather than with system properties
+ * that would apply to every Derby database in the JVM. Derby reads them when it boots the database so a change takes
+ * effect from the next start.
+ */
+public class DerbyWarmup {
+
+    private static final Log LOG = LogFactory.getLog(DerbyWarmup.class);
+
+    static final String CONSTRAINTS_SQL =
+            "select c.CONSTRAINTNAME from SYS.SYSCONSTRAINTS c " +
+                    "join SYS.SYSTABLES t on t.TABLEID = c.TABLEID " +
+                    "join SYS.SYSSCHEMAS s on s.SCHEMAID = t.SCHEMAID " +
+                    "where t.TABLENAME = ? and s.SCHEMANAME = CURRENT SCHEMA and c.TYPE in ('P', 'U', 'F')";
+
+    /**
+     * Indexes that do not back a constraint. Those that do have system generated names and are forced by naming their
+     * constraint.
+     */
+    static final String INDEXES_SQL =
+            "select g.CONGLOMERATENAME from SYS.SYSCONGLOMERATES g " +
+                    "join SYS.SYSTABLES t on t.TABLEID = g.TABLEID " +
+                    "join SYS.SYSSCHEMAS s on s.SCHEMAID = t.SCHEMAID " +
+                    "where t.TABLENAME = ? and s.SCHEMANAME = CURRENT SCHEMA and g.ISINDEX " +
+                    "and g.CONGLOMERATEID not in (select k.CONGLOMERATEID from SYS.SYSKEYS k) " +
+                    "and g.CONGLOMERATEID not in (select f.CONGLOMERATEID from SYS.SYSFOREIGNKEYS f)";
+
+    private final DataSource dataSource;
+
+    private boolean enabled = true;
+
+    private List<String> tables = Arrays.asList("PRODUCT");
+
+    private List<String> indexedTables = Arrays.asList("PRODUCT");
+
+    private Map<String, String> databaseProperties = Collections.emptyMap();
+
+    public DerbyWarmup(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * The tables to read in full.
+     */
+    public void setTables(String... tables) {
+        this.tables = Arrays.asList(tables);
+    }
+
+    /**
+     * The tables whose indexes are read in full.
+     */
+    public void setIndexedTables(String... indexedTables) {
+        this.indexedTables = Arrays.asList(indexedTables);
+    }
+
+    /**
+     * The Derby properties such as derby.storage.pageCacheSize to store in the database.
+     */
+    public void setDatabaseProperties(Map<String, String> databaseProperties) {
+        this.databaseProperties = databaseProperties;
+    }
+
+    /**
+     * Stores the database properties that differ from those already stored and then reads the configured tables and
+     * indexes. Returns the number of rows and index entries that were read.
+     */
+    public long warmUp() {
+        final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        storeDatabaseProperties(jdbc);
+        if( !enabled ) return 0;
+        final long started = System.currentTimeMillis();
+        jdbc.setFetchSize(1000);
+        long read = 0;
+        for( String table : tables ) {
+            final long[] rows = {0};
+            jdbc.query("select * from " + table.toUpperCase(), rs -> { rows[0]++; });
+            read += rows[0];
+        }
+        for( String table : indexedTables ) {
+            final String name = table.toUpperCase();
+            for( String constraint : jdbc.queryForList(CONSTRAINTS_SQL, String.class, name) ) {
+                read += count(jdbc, name, "constraint", constraint);
+            }
+            for( String index : jdbc.queryForList(INDEXES_SQL, String.class, name) ) {
+                read += count(jdbc, name, "index", index);
+            }
+        }
+        LOG.info(String.format("preloaded %d rows and index entries of %s and indexes of %s in %d ms",
+                read, tables, indexedTables, System.currentTimeMillis() - started));
+        return read;
+    }
+
+    private void storeDatabaseProperties(JdbcTemplate jdbc) {
+        databaseProperties.forEach((key, value) -> {
+            final String stored =
+                    jdbc.queryForObject("values SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY(?)", String.class, key);
+            if( !Objects.equals(stored, value) ) {
+                jdbc.update("call SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)", key, value);
+                LOG.info(String.format("set database property %s=%s which takes effect when the database is next " +
+                        "booted", key, value));
+            }
+        });
+    }
+
+    private static long count(JdbcTemplate jdbc, String table, String overrideKind, String overrideName) {
+        // the optimizer override is a comment that must be terminated by a new line
+        return jdbc.queryForObject(String.format("select count(*) from %s --DERBY-PROPERTIES %s=\"%s\"\n",
+                table, overrideKind, overrideName), Long.class);
+    }
+}
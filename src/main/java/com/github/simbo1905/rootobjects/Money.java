@@ -34,12 +34,12 @@ public class Money {
     }
 
     public Money add(Money other) {
-        if( this.currency != other.currency )
+        if( !this.currency.equals(other.currency) )
             throw new IllegalArgumentException(String.format("%s != %s", this.currency, other.currency));
         return new Money(this.currency, this.amount.add(other.amount));
     }
     public Money subtract(Money other) {
-        if( this.currency != other.currency )
+        if( !this.currency.equals(other.currency) )
             throw new IllegalArgumentException(String.format("%s != %s", this.currency, other.currency));
         return new Money(this.currency, this.amount.subtract(other.amount));
     }
@@ -0,0 +1,62 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * A whole contract aggregate stored as one compressed snapshot. A contract is the root of its aggregate so it is also
+ * the unit that is moved to the archive: its deliveries, line items and join table entities are written to the
+ * snapshot and deleted from the hot tables in the same transaction. The products that the line items refer to stay in
+ * the catalogue. Contracts are loaded by name so the archive holds at most one contract with a given name.
+ */
+@Entity
+@Table(name = "CONTRACT_ARCHIVE",
+        indexes = @Index(name = "IDX_CONTRACT_ARCHIVE_NAME", columnList = "NAME", unique = true))
+class ArchivedContract {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "ID", nullable=false, updatable=false)
+    private Long id;
+
+    @Column(name = "CONTRACT_ID", updatable = false)
+    private Long contractId;
+
+    @Column(name = "NAME", updatable = false)
+    private String name;
+
+    @Column(name = "CLOSED_AT", updatable = false)
+    private Date closedAt;
+
+    @Column(name = "ARCHIVED_AT", updatable = false)
+    private Date archivedAt;
+
+    @Lob
+    @Column(name = "SNAPSHOT", updatable = false, length = 16777216)
+    private byte[] snapshot;
+
+    ArchivedContract(){}
+
+    ArchivedContract(Contract contract, byte[] snapshot) {
+        this.contractId = contract.getContractId();
+        this.name = contract.getName();
+        this.closedAt = contract.getClosedAt();
+        this.archivedAt = new Date();
+        this.snapshot = snapshot;
+    }
+
+    Long getContractId() {
+        return contractId;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Date getArchivedAt() {
+        return archivedAt;
+    }
+
+    byte[] getSnapshot() {
+        return snapshot;
+    }
+}
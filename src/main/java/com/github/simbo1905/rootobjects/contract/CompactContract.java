@@ -0,0 +1,333 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * A compact in-memory form of a contract for editing contracts with very many line items. A line item is a row in a
+ * few primitive arrays: its id, the index of its product and unit price in a table of the distinct pairs of them, its
+ * quantity and the index of its delivery or -1 when it is not in one. So there are no line item, delivery or join
+ * table entities and no per line item lists or optionals. Line items and deliveries are referred to by their index.
+ * Deleting one shifts the later ones down by one in the same way as removing from a list.
+ *
+ * The contract entities are only built when the ContractService saves a compact contract: it loads the contract and
+ * applies the compact state to it through the public methods of the contract so that the same rules are enforced and
+ * the same changes are written to the outbox.
+ */
+public final class CompactContract {
+
+    private static final long UNSAVED = 0L;
+
+    private static final int NO_DELIVERY = -1;
+
+    private final Long contractId;
+    private final String name;
+    private final Date createdAt;
+    private Money totalCost;
+
+    private final List<PricedProduct> products = new ArrayList<>();
+    private final Map<PricedProduct, Integer> productIndex = new HashMap<>();
+
+    private int deliveryCount = 0;
+    private long[] deliveryIds;
+    private Date[] deliveryDates;
+    private String[] locations;
+
+    private int lineItemCount = 0;
+    private long[] lineItemIds;
+    private int[] productOf;
+    private int[] quantities;
+    private int[] deliveryOf;
+
+    public CompactContract(String name) {
+        this(null, name, null, new Money("USD", new BigDecimal("0.00")), 4, 16);
+    }
+
+    private CompactContract(Long contractId, String name, Date createdAt, Money totalCost,
+                            int deliveryCapacity, int lineItemCapacity) {
+        this.contractId = contractId;
+        this.name = name;
+        this.createdAt = createdAt;
+        this.totalCost = totalCost;
+        this.deliveryIds = new long[Math.max(1, deliveryCapacity)];
+        this.deliveryDates = new Date[deliveryIds.length];
+        this.locations = new String[deliveryIds.length];
+        this.lineItemIds = new long[Math.max(1, lineItemCapacity)];
+        this.productOf = new int[lineItemIds.length];
+        this.quantities = new int[lineItemIds.length];
+        this.deliveryOf = new int[lineItemIds.length];
+    }
+
+    /**
+     * Compacts a loaded contract. The contract can then be let go of so that only the compact form stays in memory.
+     */
+    public static CompactContract of(Contract contract) {
+        final CompactContract compact = new CompactContract(contract.getContractId(), contract.getName(),
+                contract.getCreatedAt(), contract.getTotalCost(),
+                contract.getDeliveries().size(), contract.getLineItems().size());
+        final Map<Delivery, Integer> positions = new IdentityHashMap<>();
+        for( Delivery delivery : contract.getDeliveries() ) {
+            positions.put(delivery,
+                    compact.addDelivery(delivery.deliveryId(), delivery.getDate(), delivery.getLocation()));
+        }
+        for( LineItem lineItem : contract.getLineItems() ) {
+            compact.addLineItem(lineItem.lineItemId(), lineItem.getProduct(), lineItem.getUnitPrice(),
+                    lineItem.getQuantity(), lineItem.delivery.map(positions::get).orElse(NO_DELIVERY));
+        }
+        return compact;
+    }
+
+    Long getContractId() {
+        return contractId;
+    }
+
+    /**
+     * The ids of the distinct products of the line items.
+     */
+    List<Long> productIds() {
+        final Set<Long> ids = new LinkedHashSet<>();
+        products.forEach(p -> ids.add(p.product.getId()));
+        return new ArrayList<>(ids);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * When the contract was created or null if it has not been saved yet.
+     */
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public Money getTotalCost() {
+        return totalCost;
+    }
+
+    public int deliveryCount() {
+        return deliveryCount;
+    }
+
+    public Date deliveryDate(int delivery) {
+        return deliveryDates[checkDelivery(delivery)];
+    }
+
+    public String deliveryLocation(int delivery) {
+        return locations[checkDelivery(delivery)];
+    }
+
+    public int lineItemCount() {
+        return lineItemCount;
+    }
+
+    public Product product(int lineItem) {
+        return products.get(productOf[checkLineItem(lineItem)]).product;
+    }
+
+    /**
+     * The price of the product when the line item was created.
+     */
+    public Money unitPrice(int lineItem) {
+        return products.get(productOf[checkLineItem(lineItem)]).unitPrice;
+    }
+
+    public int quantity(int lineItem) {
+        return quantities[checkLineItem(lineItem)];
+    }
+
+    public Money cost(int lineItem) {
+        return unitPrice(lineItem).times(quantity(lineItem));
+    }
+
+    /**
+     * The index of the delivery of the line item or -1 when it is not in a delivery.
+     */
+    public int deliveryOf(int lineItem) {
+        return deliveryOf[checkLineItem(lineItem)];
+    }
+
+    /**
+     * Creates a delivery and returns its index.
+     */
+    public int createDelivery(Date date, String location) {
+        return addDelivery(UNSAVED, date, location);
+    }
+
+    /**
+     * Creates a line item at the current price of the product and returns its index. Updates the total cost of the
+     * contract.
+     */
+    public int createLineItem(Product product, int quantity) {
+        if( quantity < 0 ) throw new IllegalArgumentException(""+quantity);
+        final int lineItem = addLineItem(UNSAVED, product, product.getPrice(), quantity, NO_DELIVERY);
+        this.totalCost = this.totalCost.add(cost(lineItem));
+        return lineItem;
+    }
+
+    /**
+     * Updates the quantity of a line item. Updates the total cost of the contract.
+     */
+    public void updateQuantity(int lineItem, int quantity) {
+        if( quantity < 0 ) throw new IllegalArgumentException(""+quantity);
+        this.totalCost = this.totalCost.subtract(cost(lineItem));
+        quantities[lineItem] = quantity;
+        this.totalCost = this.totalCost.add(cost(lineItem));
+    }
+
+    /**
+     * Puts a line item into a delivery taking it out of the delivery it was in (if any). A delivery of -1 takes the
+     * line item out of its delivery.
+     */
+    public void assignToDelivery(int lineItem, int delivery) {
+        checkLineItem(lineItem);
+        if( delivery != NO_DELIVERY ) checkDelivery(delivery);
+        deliveryOf[lineItem] = delivery;
+    }
+
+    /**
+     * Deletes a line item. The later line items move down by one. Updates the total cost of the contract.
+     */
+    public void deleteLineItem(int lineItem) {
+        this.totalCost = this.totalCost.subtract(cost(lineItem));
+        final int moved = lineItemCount - lineItem - 1;
+        System.arraycopy(lineItemIds, lineItem + 1, lineItemIds, lineItem, moved);
+        System.arraycopy(productOf, lineItem + 1, productOf, lineItem, moved);
+        System.arraycopy(quantities, lineItem + 1, quantities, lineItem, moved);
+        System.arraycopy(deliveryOf, lineItem + 1, deliveryOf, lineItem, moved);
+        lineItemCount--;
+    }
+
+    /**
+     * Deletes a delivery. Its line items are no longer in a delivery and the later deliveries move down by one.
+     */
+    public void deleteDelivery(int delivery) {
+        checkDelivery(delivery);
+        final int moved = deliveryCount - delivery - 1;
+        System.arraycopy(deliveryIds, delivery + 1, deliveryIds, delivery, moved);
+        System.arraycopy(deliveryDates, delivery + 1, deliveryDates, delivery, moved);
+        System.arraycopy(locations, delivery + 1, locations, delivery, moved);
+        deliveryCount--;
+        deliveryDates[deliveryCount] = null;
+        locations[deliveryCount] = null;
+        for( int l = 0; l < lineItemCount; l++ ) {
+            if( deliveryOf[l] == delivery ) {
+                deliveryOf[l] = NO_DELIVERY;
+            } else if( deliveryOf[l] > delivery ) {
+                deliveryOf[l]--;
+            }
+        }
+    }
+
+    /**
+     * Brings the contract into line with this compact form using the public methods of the contract. Deliveries and
+     * line items are matched on their ids: those that are no longer here are deleted, those without an id are created
+     * and quantities that differ are updated. The deliveries of the line items are then applied as one plan.
+     */
+    void applyTo(Contract contract) {
+        final Map<Long, Delivery> savedDeliveries = new HashMap<>();
+        contract.getDeliveries().forEach(d -> savedDeliveries.put(d.deliveryId(), d));
+        final Delivery[] deliveries = new Delivery[deliveryCount];
+        for( int d = 0; d < deliveryCount; d++ ) {
+            deliveries[d] = deliveryIds[d] == UNSAVED ? contract.createDelivery(deliveryDates[d], locations[d])
+                    : saved(savedDeliveries.remove(deliveryIds[d]), "delivery", deliveryIds[d]);
+        }
+        savedDeliveries.values().forEach(contract::deleteDelivery);
+
+        final Map<Long, LineItem> savedLineItems = new HashMap<>();
+        contract.getLineItems().forEach(l -> savedLineItems.put(l.lineItemId(), l));
+        final Map<LineItem, Delivery> plan = new IdentityHashMap<>();
+        for( int l = 0; l < lineItemCount; l++ ) {
+            final LineItem lineItem;
+            if( lineItemIds[l] == UNSAVED ) {
+                final PricedProduct priced = products.get(productOf[l]);
+                lineItem = contract.createLineItem(priced.product, priced.unitPrice, quantities[l]);
+            } else {
+                lineItem = saved(savedLineItems.remove(lineItemIds[l]), "line item", lineItemIds[l]);
+                if( lineItem.getQuantity() != quantities[l] ) {
+                    contract.updateQuanity(lineItem, quantities[l]);
+                }
+            }
+            plan.put(lineItem, deliveryOf[l] == NO_DELIVERY ? null : deliveries[deliveryOf[l]]);
+        }
+        savedLineItems.values().forEach(contract::deleteLineItem);
+        contract.assignLineItemsToDeliveries(plan);
+    }
+
+    private <T> T saved(T entity, String kind, long id) {
+        if( entity == null ) {
+            throw new IllegalStateException(kind + " " + id + " is no longer in contract " + name);
+        }
+        return entity;
+    }
+
+    private int addDelivery(Long id, Date date, String location) {
+        if( deliveryCount == deliveryIds.length ) {
+            final int capacity = deliveryCount * 2;
+            deliveryIds = Arrays.copyOf(deliveryIds, capacity);
+            deliveryDates = Arrays.copyOf(deliveryDates, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+        }
+        deliveryIds[deliveryCount] = id == null ? UNSAVED : id;
+        deliveryDates[deliveryCount] = date;
+        locations[deliveryCount] = location;
+        return deliveryCount++;
+    }
+
+    private int addLineItem(Long id, Product product, Money unitPrice, int quantity, int delivery) {
+        if( lineItemCount == lineItemIds.length ) {
+            final int capacity = lineItemCount * 2;
+            lineItemIds = Arrays.copyOf(lineItemIds, capacity);
+            productOf = Arrays.copyOf(productOf, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            deliveryOf = Arrays.copyOf(deliveryOf, capacity);
+        }
+        lineItemIds[lineItemCount] = id == null ? UNSAVED : id;
+        productOf[lineItemCount] = productIndex.computeIfAbsent(new PricedProduct(product, unitPrice), p -> {
+            products.add(p);
+            return products.size() - 1;
+        });
+        quantities[lineItemCount] = quantity;
+        deliveryOf[lineItemCount] = delivery;
+        return lineItemCount++;
+    }
+
+    private int checkLineItem(int lineItem) {
+        if( lineItem < 0 || lineItem >= lineItemCount ) throw new IndexOutOfBoundsException("line item " + lineItem);
+        return lineItem;
+    }
+
+    private int checkDelivery(int delivery) {
+        if( delivery < 0 || delivery >= deliveryCount ) throw new IndexOutOfBoundsException("delivery " + delivery);
+        return delivery;
+    }
+
+    /**
+     * A product at a unit price. The same product can appear at more than one price when it was repriced between the
+     * creation of its line items.
+     */
+    private static final class PricedProduct {
+        final Product product;
+        final Money unitPrice;
+
+        PricedProduct(Product product, Money unitPrice) {
+            this.product = product;
+            this.unitPrice = unitPrice;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if( !(o instanceof PricedProduct) ) return false;
+            final PricedProduct other = (PricedProduct) o;
+            return product == other.product && unitPrice.equals(other.unitPrice);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(product) + unitPrice.hashCode();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.simbo1905.rootobjects.contract;
 
 import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.PriceBook;
 import com.github.simbo1905.rootobjects.product.Product;
 
 import javax.persistence.*;
@@ -16,7 +17,9 @@ import java.util.*;
  * of anything in the contract.
  */
 @Entity
-@Table(name = "CONTRACT")
+@Table(name = "CONTRACT", indexes = {
+        @Index(name = "IDX_CONTRACT_NAME", columnList = "NAME"),
+        @Index(name = "IDX_CONTRACT_CLOSED_AT", columnList = "CLOSED_AT")})
 public class Contract {
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
@@ -26,6 +29,14 @@ public class Contract {
     @Column(name = "NAME")
     private String name = "";
 
+    /**
+     * Incremented by every save that changes the contract or its collections so that saving a stale copy fails rather
+     * than overwriting a newer save and so that the ContractArchiver cannot miss a change made while it archives.
+     */
+    @Version
+    @Column(name = "VERSION")
+    private long version;
+
     @Embedded
     private Money totalCost = new Money("USD", new BigDecimal("0.00"));
 
@@ -33,12 +44,109 @@ public class Contract {
         return totalCost;
     }
 
+    /**
+     * When the contract was created. Line items can be costed at the prices in effect at this time.
+     */
+    @Column(name = "CREATED_AT", updatable = false)
+    private Date createdAt;
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * The total cost at the prices that were in effect when the contract was created rather than at the unit prices of
+     * the line items that the total cost is kept at. Each product is priced once.
+     */
+    public Money costAtContractTime(PriceBook prices) {
+        final Map<Long, Optional<Money>> priced = new HashMap<>();
+        final PriceBook pricedOnce = (product, when) ->
+                priced.computeIfAbsent(product.getId(), id -> prices.priceAt(product, when));
+        Money total = new Money(totalCost.getCurrency(), new BigDecimal("0.00"));
+        for( LineItem lineItem : lineItems ) {
+            total = total.add(lineItem.cost(pricedOnce));
+        }
+        return total;
+    }
+
+    /**
+     * When the contract was closed. Closed contracts are moved to the archive by the ContractArchiver once they have
+     * been closed for long enough.
+     */
+    @Column(name = "CLOSED_AT")
+    private Date closedAt;
+
+    public Date getClosedAt() {
+        return closedAt;
+    }
+
+    public boolean isClosed() {
+        return closedAt != null;
+    }
+
+    /**
+     * Closes the contract. A closed contract cannot be changed or closed again.
+     */
+    public void close(Date closedAt) {
+        checkOpen();
+        if( closedAt == null ) throw new IllegalArgumentException("closedAt");
+        this.closedAt = closedAt;
+        changes.contractClosed();
+    }
+
+    /**
+     * Set on a contract that was restored from the archive. Such a contract is a read only copy that cannot be changed
+     * or saved.
+     */
+    @Transient
+    boolean archived = false;
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    private void checkOpen() {
+        if( archived ) throw new IllegalStateException("archived contracts are read only: " + name);
+        if( closedAt != null ) throw new IllegalStateException("closed contracts cannot be changed: " + name);
+    }
+
+    /**
+     * Records what has changed since the contract was loaded or last saved so that the ContractService can write a
+     * compact change record to the outbox in the same transaction as the contract.
+     */
+    @Transient
+    final ContractChanges changes = new ContractChanges();
+
     Contract(String name) {
         this.name = name;
+        this.createdAt = new Date();
     }
 
     Contract(){}
 
+    /**
+     * Rebuilds a contract from an archive snapshot. The deliveries and line items are added with restore so no changes
+     * or join table entities are recorded.
+     */
+    Contract(Long contractId, String name, Money totalCost, Date createdAt, Date closedAt) {
+        this.contractId = contractId;
+        this.name = name;
+        this.totalCost = totalCost;
+        this.createdAt = createdAt;
+        this.closedAt = closedAt;
+        this.archived = true;
+    }
+
+    void restore(Delivery delivery) {
+        deliveries.add(delivery);
+    }
+
+    void restore(LineItem lineItem, Optional<Delivery> delivery) {
+        lineItems.add(lineItem);
+        lineItem.delivery = delivery;
+        delivery.ifPresent(d -> d.addLineItem(lineItem));
+    }
+
     public String getName() {
         return name;
     }
@@ -53,6 +161,30 @@ public class Contract {
         return contractId;
     }
 
+    /**
+     * Saving a detached contract merges it into a managed copy and it is the copy that gets the ids of any new
+     * entities. This copies them back by position so that the contract can be changed and saved again without its new
+     * entities being inserted a second time. The version is copied too so the next save is not taken as stale.
+     */
+    void copyIdsFrom(Contract saved) {
+        if( saved == this ) return;
+        if( saved.lineItems.size() != lineItems.size() || saved.deliveries.size() != deliveries.size()
+                || saved.deliveryLineItems.size() != deliveryLineItems.size() ) {
+            throw new IllegalStateException("saved contract does not match: " + name);
+        }
+        this.contractId = saved.contractId;
+        this.version = saved.version;
+        for( int i = 0; i < lineItems.size(); i++ ) {
+            lineItems.get(i).copyIdFrom(saved.lineItems.get(i));
+        }
+        for( int i = 0; i < deliveries.size(); i++ ) {
+            deliveries.get(i).copyIdFrom(saved.deliveries.get(i));
+        }
+        for( int i = 0; i < deliveryLineItems.size(); i++ ) {
+            deliveryLineItems.get(i).copyIdFrom(saved.deliveryLineItems.get(i));
+        }
+    }
+
     /**
      * This defines a foreign key relationship from deliveries back to contract.
      * Delete a delivery from this list and it will be deleted from the database due to "orphanRemoval=true".
@@ -66,8 +198,10 @@ public class Contract {
      * delivery.
      */
     public Delivery createDelivery(Date date, String location) {
+        checkOpen();
         final Delivery delivery = new Delivery(this, date, location);
         deliveries.add(delivery);
+        changes.deliveryCreated(delivery);
         return delivery;
     }
 
@@ -80,14 +214,24 @@ public class Contract {
 
     /**
      * Creates a line item. Note that a line item has no public modifiers so to the outside world it is unmodifiable.
+     * The line item is priced at the current price of the product.
      * Updates the total cost of the contract.
      */
     public LineItem createLineItem(Product product, int quanity) {
+        return createLineItem(product, product.getPrice(), quanity);
+    }
+
+    /**
+     * Creates a line item at a unit price that was taken from the product earlier such as by a CompactContract.
+     */
+    LineItem createLineItem(Product product, Money unitPrice, int quanity) {
+        checkOpen();
         if( quanity < 0 ) throw new IllegalArgumentException(""+quanity);
         //We probably shouldn't allow two line items for the same product we should sum their quantities into one item.
-        final LineItem lineItem = new LineItem(this, product, quanity);
+        final LineItem lineItem = new LineItem(this, product, unitPrice, quanity);
         this.lineItems.add(lineItem);
         this.totalCost = this.totalCost.add(lineItem.cost());
+        changes.lineItemCreated(lineItem);
         return lineItem;
     }
 
@@ -97,6 +241,7 @@ public class Contract {
      * Updates the total cost of the contract.
      */
     public boolean deleteLineItem(LineItem lineItem) {
+        checkOpen();
         boolean removedFromContract = this.lineItems.remove(lineItem);
         if( removedFromContract) {
             // if the line item is already in a delivery remove it from in-memory and db join table
@@ -106,15 +251,25 @@ public class Contract {
             }
             // update the total cost
             this.totalCost = this.totalCost.subtract(lineItem.cost());
+            changes.lineItemDeleted(lineItem);
         }
         return removedFromContract;
     }
 
+    /**
+     * Updates the quantity of a line item.
+     * Updates the total cost of the contract.
+     */
     public boolean updateQuanity(LineItem lineItem, int quanity) {
+        checkOpen();
         if( quanity < 0 ) throw new IllegalArgumentException(""+quanity);
         boolean contains = this.lineItems.contains(lineItem);
         if( contains ) {
+            // update the total cost
+            this.totalCost = this.totalCost.subtract(lineItem.cost());
             lineItem.updateQuantity(quanity);
+            this.totalCost = this.totalCost.add(lineItem.cost());
+            changes.lineItemRequantified(lineItem);
             return true;
         } else {
             return false;
@@ -154,6 +309,8 @@ public class Contract {
      * so that the relationship is saved to the db in a relational format.
      */
     public void addLineItemToDelivery(LineItem lineItem, Delivery delivery) {
+        checkOpen();
+        changes.assignmentChanging(lineItem);
         // if the line item is already in a delivery remove it from in-memory and db join table
         if( lineItem.delivery.isPresent() ) {
             final Delivery oldDelivery = lineItem.delivery.get();
@@ -173,10 +330,13 @@ public class Contract {
      * associates line items to the delivery.
      */
     public boolean deleteDelivery(Delivery delivery) {
+        checkOpen();
         boolean removedFromContract = this.deliveries.remove(delivery);
         if( removedFromContract ) {
-            // remove the join table entry so that the association is deleted in the database.
-            delivery.getLineItems().forEach(l -> removeLineItemFromDelivery(l, delivery));
+            // remove the join table entry so that the association is deleted in the database. this iterates over a copy
+            // as removing a line item from the delivery modifies its list.
+            new ArrayList<>(delivery.lineItems).forEach(l -> removeLineItemFromDelivery(l, delivery));
+            changes.deliveryDeleted(delivery);
         }
         return removedFromContract;
     }
@@ -185,8 +345,13 @@ public class Contract {
      * Removes a line item from a delivery deleting the join table entity (if any).
      */
     public boolean removeLineItemFromDelivery(LineItem lineItem, Delivery delivery) {
+        checkOpen();
+        changes.assignmentChanging(lineItem);
         // remove it from in-memory
         delivery.removeLineItem(lineItem);
+        if( lineItem.delivery.isPresent() && lineItem.delivery.get() == delivery ) {
+            lineItem.delivery = Optional.empty();
+        }
         // remove the join table entry from the database
         Optional<DeliveryLineItem> optionalDeliveryLineItem =
                 this.deliveryLineItems.stream().filter(
@@ -198,6 +363,63 @@ public class Contract {
         }
     }
 
+    /**
+     * Applies a whole plan of line item to delivery assignments at once. A line item mapped to null is removed from
+     * its delivery and line items that are not in the plan keep their current delivery. The join table entities are
+     * indexed once so that each line item costs a lookup rather than a scan: a line item that moves keeps its join
+     * table entity which is updated to the new delivery, a newly assigned line item gets a new one and an unassigned
+     * line item has its one deleted. Saving merges the contract and merge writes a new join table entity as an insert
+     * followed by an update that sets its keys, so a new assignment costs an insert and an update. Each delivery that
+     * loses line items is rebuilt once at the end. The plan is checked before anything is changed so a plan that
+     * refers to line items or deliveries of another contract changes nothing. Returns the number of line items whose
+     * delivery changed.
+     */
+    public int assignLineItemsToDeliveries(Map<LineItem, Delivery> plan) {
+        checkOpen();
+        final Set<LineItem> ownLineItems = Collections.newSetFromMap(new IdentityHashMap<>());
+        ownLineItems.addAll(this.lineItems);
+        final Set<Delivery> ownDeliveries = Collections.newSetFromMap(new IdentityHashMap<>());
+        ownDeliveries.addAll(this.deliveries);
+        plan.forEach((lineItem, delivery) -> {
+            if( !ownLineItems.contains(lineItem) ) {
+                throw new IllegalArgumentException("line item is not in this contract: " + lineItem);
+            }
+            if( delivery != null && !ownDeliveries.contains(delivery) ) {
+                throw new IllegalArgumentException("delivery is not in this contract: " + delivery.getLocation());
+            }
+        });
+
+        final Map<LineItem, DeliveryLineItem> joins = new IdentityHashMap<>();
+        this.deliveryLineItems.forEach(d -> joins.put(d.getLineItem(), d));
+        final Set<DeliveryLineItem> unassigned = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<Delivery> emptied = Collections.newSetFromMap(new IdentityHashMap<>());
+        int changed = 0;
+        for( Map.Entry<LineItem, Delivery> assignment : plan.entrySet() ) {
+            final LineItem lineItem = assignment.getKey();
+            final Delivery delivery = assignment.getValue();
+            final Delivery current = lineItem.delivery.orElse(null);
+            if( current == delivery ) continue;
+            changes.assignmentChanging(lineItem);
+            if( current != null ) emptied.add(current);
+            final DeliveryLineItem join = joins.get(lineItem);
+            if( delivery == null ) {
+                unassigned.add(join);
+            } else if( join != null ) {
+                join.moveTo(delivery);
+            } else {
+                this.deliveryLineItems.add(new DeliveryLineItem(this, delivery, lineItem));
+            }
+            if( delivery != null ) delivery.addLineItem(lineItem);
+            lineItem.delivery = Optional.ofNullable(delivery);
+            changed++;
+        }
+        if( !unassigned.isEmpty() ) {
+            this.deliveryLineItems.removeIf(unassigned::contains);
+        }
+        emptied.forEach(d -> d.lineItems.removeIf(l -> l.delivery.orElse(null) != d));
+        return changed;
+    }
+
     /**
      * This method is called post loading a contract from the database. It users the join table entity to know
      * which line items are in which contract and updates the objects in-memory so that the deliveries have a
@@ -0,0 +1,35 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.product.Product;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This is not a public class deliberately as only the ContractArchiver writes to the archive and only the
+ * ContractService reads from it.
+ */
+interface ContractArchiveRespository extends JpaRepository<ArchivedContract, Long> {
+    @Query("select a from ArchivedContract a where a.name = ?1")
+    ArchivedContract findByName(String name);
+
+    /**
+     * The snapshot of an archived contract selected as a value so that nothing is managed.
+     */
+    @Query("select a.snapshot from ArchivedContract a where a.name = ?1")
+    List<byte[]> findSnapshotByName(String name);
+
+    /**
+     * The products that the line items of a restored contract refer to.
+     */
+    @Query("select p from Product p where p.id in ?1")
+    List<Product> findProducts(Collection<Long> ids);
+
+    /**
+     * The id, sku, currency and amount of the products that the line items of an archived contract refer to.
+     */
+    @Query("select p.id, p.sku, p.price.currency, p.price.amount from Product p where p.id in ?1")
+    List<Object[]> findProductRows(Collection<Long> ids);
+}
@@ -0,0 +1,113 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves contracts that were closed long enough ago out of the hot tables and into the archive. Contracts are moved in
+ * batches with each batch in its own transaction: the contract rows of the batch are locked, the contracts are read
+ * with one query per collection, a compressed snapshot of each contract is written to the archive, and the rows of the
+ * whole batch are removed with one bulk delete per table. A closed contract cannot be changed and every save of a
+ * contract updates its version so a save of a stale copy that races the archiver waits on the lock and then fails
+ * rather than being lost. A failed batch is rolled back and is retried by the next run. Archiving does not write to
+ * the outbox as the contract itself is unchanged.
+ *
+ * The archive holds one contract per name. A contract that was created with the name of an archived contract is
+ * left in the hot tables when it is closed, where loading by name still finds it, and a warning gives the number of
+ * such contracts once there is nothing left to archive.
+ *
+ * When contract shards are configured each shard has its own archive and every shard is archived.
+ */
+@Named("contractArchiver")
+public class ContractArchiver {
+
+    private static final Log LOG = LogFactory.getLog(ContractArchiver.class);
+
+    @Inject ContractRespository contractRespository;
+
+    @Inject ContractArchiveRespository contractArchiveRespository;
+
+    @Inject PlatformTransactionManager transactionManager;
+
+    @Inject Optional<ContractShards> contractShards;
+
+    /**
+     * Archives up to batchSize of the contracts closed before the given date from each database. Returns the number
+     * archived.
+     */
+    public int archiveBatch(Date closedBefore, int batchSize) {
+        if( contractShards.isPresent() ) {
+            return contractShards.get().shards().stream().mapToInt(shard -> archiveBatch(shard.transactionTemplate,
+                    shard.contracts, shard.archive, closedBefore, batchSize)).sum();
+        } else {
+            return archiveBatch(new TransactionTemplate(transactionManager), contractRespository,
+                    contractArchiveRespository, closedBefore, batchSize);
+        }
+    }
+
+    /**
+     * Archives batches until no contract closed before the given date is left. Returns the number archived.
+     */
+    public long archiveAll(Date closedBefore, int batchSize) {
+        long archived = 0;
+        int batch;
+        do {
+            batch = archiveBatch(closedBefore, batchSize);
+            archived += batch;
+        } while( batch > 0 );
+        return archived;
+    }
+
+    /**
+     * Runs archiveAll every period on the given scheduler for the contracts that have been closed for longer than the
+     * retention period. A run that fails is logged and the next run carries on.
+     */
+    public ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, long retentionMillis, int batchSize,
+                                       long periodMillis) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                final long archived = archiveAll(new Date(System.currentTimeMillis() - retentionMillis), batchSize);
+                if( archived > 0 ) LOG.info("archived " + archived + " contracts");
+            } catch (RuntimeException e) {
+                LOG.warn("archiving failed", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static int archiveBatch(TransactionTemplate transactionTemplate, ContractRespository contracts,
+                            ContractArchiveRespository archive, Date closedBefore, int batchSize) {
+        return transactionTemplate.execute(status -> {
+            final List<Long> closed = contracts.findClosedBefore(closedBefore, new PageRequest(0, batchSize));
+            if( closed.isEmpty() ) {
+                final long named = contracts.countClosedBeforeWithArchivedName(closedBefore);
+                if( named > 0 ) LOG.warn(named + " closed contracts are not archived as their names are archived");
+                return 0;
+            }
+            final List<Long> ids = contracts.lockContracts(closed);
+            if( ids.isEmpty() ) return 0;
+            contracts.findAllWithAssignments(ids);
+            contracts.findAllWithLineItems(ids);
+            for( Contract contract : contracts.findAllWithDeliveries(ids) ) {
+                archive.save(new ArchivedContract(contract, ContractSnapshot.write(contract)));
+            }
+            archive.flush();
+            contracts.deleteDeliveryLineItems(ids);
+            contracts.deleteLineItems(ids);
+            contracts.deleteDeliveries(ids);
+            contracts.deleteContracts(ids);
+            return ids.size();
+        });
+    }
+}
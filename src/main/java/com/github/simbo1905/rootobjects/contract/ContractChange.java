@@ -0,0 +1,64 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import java.util.Date;
+
+/**
+ * A change to a contract as published by the ContractOutboxRelay. The payload is a JSON object that gives the new
+ * total cost and the line items added, removed and requantified, the deliveries created and deleted, and the line
+ * items that moved between deliveries. Changes are delivered at least once so consumers should ignore a change whose
+ * shard, contract id and sequence number they have already seen. In shard mode each shard has its own outbox and
+ * generates its own ids so the same contract id and sequence number can come from two shards. The payload also gives
+ * the shard and the contract id.
+ */
+public final class ContractChange {
+    private final int shard;
+    private final long sequence;
+    private final long contractId;
+    private final Date createdAt;
+    private final String payload;
+
+    ContractChange(int shard, long sequence, long contractId, Date createdAt, String payload) {
+        this.shard = shard;
+        this.sequence = sequence;
+        this.contractId = contractId;
+        this.createdAt = createdAt;
+        this.payload = payload;
+    }
+
+    /**
+     * The index of the shard whose outbox the change was written to or 0 when contracts are not sharded.
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * Increases with each change written to the same database.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getContractId() {
+        return contractId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "ContractChange{" +
+                "shard=" + shard +
+                ", sequence=" + sequence +
+                ", contractId=" + contractId +
+                ", createdAt=" + createdAt +
+                ", payload='" + payload + '\'' +
+                '}';
+    }
+}
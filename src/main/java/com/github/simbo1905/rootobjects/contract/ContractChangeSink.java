@@ -0,0 +1,11 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import java.util.List;
+
+/**
+ * Where the ContractOutboxRelay publishes contract changes. A batch is only removed from the outbox once publish has
+ * returned so a sink that throws will be given the same changes again.
+ */
+public interface ContractChangeSink {
+    void publish(List<ContractChange> changes) throws Exception;
+}
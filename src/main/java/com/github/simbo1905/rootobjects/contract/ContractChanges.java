@@ -0,0 +1,220 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import java.util.*;
+
+/**
+ * Records the net changes made to a contract between saves. Only the net effect is kept: a line item that is created
+ * and then deleted before the contract is saved is not recorded at all, and a line item that is moved between several
+ * deliveries is recorded as a single move from where it started to where it ended up. Entities are held by reference
+ * as new entities only have ids once they have been saved.
+ */
+class ContractChanges {
+
+    private final Set<LineItem> lineItemsAdded = new LinkedHashSet<>();
+    private final List<Long> lineItemsRemoved = new ArrayList<>();
+    private final Set<LineItem> lineItemsRequantified = new LinkedHashSet<>();
+    private final Set<Delivery> deliveriesCreated = new LinkedHashSet<>();
+    private final List<Long> deliveriesDeleted = new ArrayList<>();
+    private boolean closed = false;
+
+    /**
+     * The delivery (if any) that each moved line item was in when the changes started being recorded.
+     */
+    private final Map<LineItem, Optional<Delivery>> assignmentsFrom = new LinkedHashMap<>();
+
+    void lineItemCreated(LineItem lineItem) {
+        lineItemsAdded.add(lineItem);
+    }
+
+    void lineItemDeleted(LineItem lineItem) {
+        assignmentsFrom.remove(lineItem);
+        lineItemsRequantified.remove(lineItem);
+        if( !lineItemsAdded.remove(lineItem) ) {
+            lineItemsRemoved.add(lineItem.lineItemId());
+        }
+    }
+
+    void lineItemRequantified(LineItem lineItem) {
+        if( !lineItemsAdded.contains(lineItem) ) {
+            lineItemsRequantified.add(lineItem);
+        }
+    }
+
+    void deliveryCreated(Delivery delivery) {
+        deliveriesCreated.add(delivery);
+    }
+
+    void deliveryDeleted(Delivery delivery) {
+        if( !deliveriesCreated.remove(delivery) ) {
+            deliveriesDeleted.add(delivery.deliveryId());
+        }
+    }
+
+    void contractClosed() {
+        closed = true;
+    }
+
+    /**
+     * Called before the delivery of a line item is changed.
+     */
+    void assignmentChanging(LineItem lineItem) {
+        if( !assignmentsFrom.containsKey(lineItem) ) {
+            assignmentsFrom.put(lineItem, lineItem.delivery);
+        }
+    }
+
+    boolean isEmpty() {
+        return !closed && lineItemsAdded.isEmpty() && lineItemsRemoved.isEmpty() && lineItemsRequantified.isEmpty()
+                && deliveriesCreated.isEmpty() && deliveriesDeleted.isEmpty() && !hasMoves();
+    }
+
+    private boolean hasMoves() {
+        return assignmentsFrom.entrySet().stream().anyMatch(e -> !sameDelivery(e.getValue(), e.getKey().delivery));
+    }
+
+    private static boolean sameDelivery(Optional<Delivery> a, Optional<Delivery> b) {
+        return a.orElse(null) == b.orElse(null);
+    }
+
+    void clear() {
+        lineItemsAdded.clear();
+        lineItemsRemoved.clear();
+        lineItemsRequantified.clear();
+        deliveriesCreated.clear();
+        deliveriesDeleted.clear();
+        assignmentsFrom.clear();
+        closed = false;
+    }
+
+    ContractChanges copy() {
+        final ContractChanges copy = new ContractChanges();
+        copy.lineItemsAdded.addAll(lineItemsAdded);
+        copy.lineItemsRemoved.addAll(lineItemsRemoved);
+        copy.lineItemsRequantified.addAll(lineItemsRequantified);
+        copy.deliveriesCreated.addAll(deliveriesCreated);
+        copy.deliveriesDeleted.addAll(deliveriesDeleted);
+        copy.assignmentsFrom.putAll(assignmentsFrom);
+        copy.closed = closed;
+        return copy;
+    }
+
+    /**
+     * Puts back the changes that a save wrote to the outbox before its transaction was rolled back. Any changes that
+     * were recorded since the save are applied on top so that only the net effect of both is kept. Entities deleted
+     * since the save are only known by their ids which they got from the save.
+     */
+    void putBack(ContractChanges written) {
+        final ContractChanges since = copy();
+        clear();
+        lineItemsAdded.addAll(written.lineItemsAdded);
+        lineItemsRemoved.addAll(written.lineItemsRemoved);
+        lineItemsRequantified.addAll(written.lineItemsRequantified);
+        deliveriesCreated.addAll(written.deliveriesCreated);
+        deliveriesDeleted.addAll(written.deliveriesDeleted);
+        assignmentsFrom.putAll(written.assignmentsFrom);
+        closed = written.closed;
+
+        since.lineItemsAdded.forEach(this::lineItemCreated);
+        for( Long id : since.lineItemsRemoved ) {
+            lineItemsRequantified.removeIf(l -> id.equals(l.lineItemId()));
+            assignmentsFrom.keySet().removeIf(l -> id.equals(l.lineItemId()));
+            if( !lineItemsAdded.removeIf(l -> id.equals(l.lineItemId())) ) {
+                lineItemsRemoved.add(id);
+            }
+        }
+        since.lineItemsRequantified.forEach(this::lineItemRequantified);
+        since.deliveriesCreated.forEach(this::deliveryCreated);
+        for( Long id : since.deliveriesDeleted ) {
+            if( !deliveriesCreated.removeIf(d -> id.equals(d.deliveryId())) ) {
+                deliveriesDeleted.add(id);
+            }
+        }
+        since.assignmentsFrom.forEach(assignmentsFrom::putIfAbsent);
+        closed = closed || since.closed;
+    }
+
+    /**
+     * Renders the changes as a compact JSON object. Saving a detached contract merges it into a copy and it is the
+     * copy that gets the ids of any new entities, so ids are looked up in the saved contract by position.
+     */
+    String toJson(Contract contract, Contract saved, boolean created, int shard) {
+        final Map<LineItem, Long> lineItemIds = new IdentityHashMap<>();
+        for( int i = 0; i < contract.getLineItems().size(); i++ ) {
+            lineItemIds.put(contract.getLineItems().get(i), saved.getLineItems().get(i).lineItemId());
+        }
+        final Map<Delivery, Long> deliveryIds = new IdentityHashMap<>();
+        for( int i = 0; i < contract.getDeliveries().size(); i++ ) {
+            deliveryIds.put(contract.getDeliveries().get(i), saved.getDeliveries().get(i).deliveryId());
+        }
+
+        final StringBuilder json = new StringBuilder("{");
+        json.append("\"shard\":").append(shard);
+        json.append(",\"contractId\":").append(saved.getContractId());
+        json.append(",\"name\":");
+        quote(json, contract.getName());
+        json.append(",\"created\":").append(created);
+        json.append(",\"closed\":").append(closed);
+        json.append(",\"totalCost\":{\"currency\":");
+        quote(json, contract.getTotalCost().getCurrency());
+        json.append(",\"amount\":\"").append(contract.getTotalCost().getAmount().toPlainString()).append("\"}");
+
+        json.append(",\"lineItemsAdded\":[");
+        String separator = "";
+        for( LineItem lineItem : lineItemsAdded ) {
+            json.append(separator).append("{\"id\":").append(lineItemIds.get(lineItem))
+                    .append(",\"productId\":").append(lineItem.getProduct().getId())
+                    .append(",\"quantity\":").append(lineItem.getQuantity()).append('}');
+            separator = ",";
+        }
+        json.append("],\"lineItemsRemoved\":").append(lineItemsRemoved);
+
+        json.append(",\"lineItemsRequantified\":[");
+        separator = "";
+        for( LineItem lineItem : lineItemsRequantified ) {
+            json.append(separator).append("{\"id\":").append(lineItemIds.get(lineItem))
+                    .append(",\"quantity\":").append(lineItem.getQuantity()).append('}');
+            separator = ",";
+        }
+
+        json.append("],\"deliveriesCreated\":[");
+        separator = "";
+        for( Delivery delivery : deliveriesCreated ) {
+            json.append(separator).append(deliveryIds.get(delivery));
+            separator = ",";
+        }
+        json.append("],\"deliveriesDeleted\":").append(deliveriesDeleted);
+
+        json.append(",\"assignments\":[");
+        separator = "";
+        for( Map.Entry<LineItem, Optional<Delivery>> move : assignmentsFrom.entrySet() ) {
+            final LineItem lineItem = move.getKey();
+            if( sameDelivery(move.getValue(), lineItem.delivery) ) continue;
+            json.append(separator).append("{\"lineItemId\":").append(lineItemIds.get(lineItem))
+                    .append(",\"from\":").append(deliveryId(move.getValue(), deliveryIds))
+                    .append(",\"to\":").append(deliveryId(lineItem.delivery, deliveryIds)).append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * A deleted delivery is no longer in the contract but it was saved before so it has its own id.
+     */
+    private static Long deliveryId(Optional<Delivery> delivery, Map<Delivery, Long> deliveryIds) {
+        return delivery.map(d -> deliveryIds.containsKey(d) ? deliveryIds.get(d) : d.deliveryId()).orElse(null);
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for( char c : value.toCharArray() ) {
+            if( c == '"' || c == '\\' ) {
+                json.append('\\').append(c);
+            } else if( c < 0x20 ) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,392 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Checks that the invariants that {@link Contract} enforces in memory still hold in the database:
+ *
+ * <ol>
+ *     <li>the total cost of a contract is the sum of the cost of its line items</li>
+ *     <li>a line item is in at most one delivery</li>
+ *     <li>a join table row has the same contract as both the delivery and the line item that it joins</li>
+ * </ol>
+ *
+ * The contract table is walked in chunks of ascending contract id. Each chunk is read with one set based query per
+ * table, which runs as a short auto-committed read at the default read committed isolation so that no locks are held
+ * between chunks and normal writes are not blocked. The chunks are then checked in memory on a small pool of threads.
+ * The pool has a bounded queue and the reading thread checks a chunk itself when the queue is full so that at most
+ * a few chunks are ever in memory at once no matter how many rows there are. Violations are streamed to a callback
+ * rather than being collected.
+ *
+ * As the reads of a chunk are separate statements a save that commits between them can make a consistent contract
+ * look broken. So a contract that fails a check is read again by the reading thread with its header, line items and
+ * join rows in one short repeatable read transaction and is only reported if it still fails. That transaction holds
+ * shared locks on the rows of the one contract until it ends and is retried if it loses a deadlock with a save.
+ *
+ * When contract shards are configured the shards are walked one after the other instead of the default database and
+ * each violation records the shard it was found in.
+ */
+@Named("contractInvariantVerifier")
+public class ContractInvariantVerifier {
+
+    public enum Kind {
+        TOTAL_COST_MISMATCH,
+        LINE_ITEM_IN_MANY_DELIVERIES,
+        JOIN_ROW_CONTRACT_MISMATCH
+    }
+
+    /**
+     * A broken invariant found in the database.
+     */
+    public static final class Violation {
+        private final int shard;
+        private final long contractId;
+        private final Kind kind;
+        private final String detail;
+
+        Violation(int shard, long contractId, Kind kind, String detail) {
+            this.shard = shard;
+            this.contractId = contractId;
+            this.kind = kind;
+            this.detail = detail;
+        }
+
+        /**
+         * The index of the shard that holds the contract or 0 when contracts are not sharded.
+         */
+        public int getShard() {
+            return shard;
+        }
+
+        public long getContractId() {
+            return contractId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            return "Violation{" +
+                    "shard=" + shard +
+                    ", contractId=" + contractId +
+                    ", kind=" + kind +
+                    ", detail='" + detail + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * The totals of a verification run.
+     */
+    public static final class Report {
+        private final long contractsChecked;
+        private final long violations;
+        private final long elapsedMillis;
+
+        Report(long contractsChecked, long violations, long elapsedMillis) {
+            this.contractsChecked = contractsChecked;
+            this.violations = violations;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getContractsChecked() {
+            return contractsChecked;
+        }
+
+        public long getViolations() {
+            return violations;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "contractsChecked=" + contractsChecked +
+                    ", violations=" + violations +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+
+    static final String CONTRACTS_SQL =
+            "select CONTRACT_ID, CURRENCY, AMOUNT from CONTRACT where CONTRACT_ID > ? order by CONTRACT_ID " +
+                    "fetch first %d rows only";
+
+    static final String CONTRACT_SQL =
+            "select CONTRACT_ID, CURRENCY, AMOUNT from CONTRACT where CONTRACT_ID = ?";
+
+    static final String LINE_ITEMS_SQL =
+            "select l.CONTRACT_ID, l.QUANTITY, l.UNIT_CURRENCY, l.UNIT_AMOUNT from LINEITEM l " +
+                    "where l.CONTRACT_ID between ? and ?";
+
+    /**
+     * Join rows are selected by the contract of the line item so that every row for a given line item lands in the
+     * same chunk as the contract that owns the line item.
+     */
+    static final String JOIN_ROWS_SQL =
+            "select dli.ID, dli.CONTRACT_ID, dli.LINEITEM_ID, l.CONTRACT_ID, d.CONTRACT_ID " +
+                    "from DELIVERY_LINEITEM dli " +
+                    "join LINEITEM l on l.LINEITEM_ID = dli.LINEITEM_ID " +
+                    "join DELIVERY d on d.DELIVERY_ID = dli.DELIVERY_ID " +
+                    "where l.CONTRACT_ID between ? and ?";
+
+    @Inject DataSource dataSource;
+
+    @Inject PlatformTransactionManager transactionManager;
+
+    @Inject Optional<ContractShards> contractShards;
+
+    static final int RECHECK_ATTEMPTS = 3;
+
+    private int chunkSize = 1000;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public void setChunkSize(int chunkSize) {
+        if( chunkSize < 1 ) throw new IllegalArgumentException(""+chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    public void setParallelism(int parallelism) {
+        if( parallelism < 1 ) throw new IllegalArgumentException(""+parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Verifies every contract in the database or in every shard. The callback may be invoked from several threads but
+     * never concurrently.
+     */
+    public Report verify(Consumer<Violation> violations) {
+        final long started = System.currentTimeMillis();
+        final LongAdder found = new LongAdder();
+        final Consumer<Violation> sink = v -> {
+            found.increment();
+            synchronized (violations) {
+                violations.accept(v);
+            }
+        };
+        long checked = 0;
+        if( contractShards.isPresent() ) {
+            for( ContractShards.Shard shard : contractShards.get().shards() ) {
+                checked += new Pass(shard.index, shard.dataSource, shard.transactionManager, sink).run();
+            }
+        } else {
+            checked = new Pass(0, dataSource, transactionManager, sink).run();
+        }
+        return new Report(checked, found.sum(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * One walk over the contracts of a database.
+     */
+    final class Pass {
+        final int shard;
+        final JdbcTemplate jdbc;
+        final TransactionTemplate consistentRead;
+        final Consumer<Violation> violations;
+        /**
+         * The contracts that failed a check of their chunk and are waiting to be read again.
+         */
+        final Queue<Long> suspects = new ConcurrentLinkedQueue<>();
+
+        Pass(int shard, DataSource dataSource, PlatformTransactionManager transactionManager,
+             Consumer<Violation> violations) {
+            this.shard = shard;
+            this.jdbc = new JdbcTemplate(dataSource);
+            this.jdbc.setFetchSize(chunkSize);
+            this.consistentRead = new TransactionTemplate(transactionManager);
+            this.consistentRead.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+            this.consistentRead.setReadOnly(true);
+            this.violations = violations;
+        }
+
+        /**
+         * Returns the number of contracts that were checked.
+         */
+        long run() {
+            long checked = 0;
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(parallelism), new ThreadPoolExecutor.CallerRunsPolicy());
+            final List<Future<?>> pending = new ArrayList<>();
+            try {
+                long after = Long.MIN_VALUE;
+                while( true ) {
+                    final Chunk chunk = readChunk(after);
+                    if( chunk.contracts.isEmpty() ) break;
+                    after = chunk.last;
+                    checked += chunk.contracts.size();
+                    pending.add(pool.submit(() -> check(chunk)));
+                    pending.removeIf(Future::isDone);
+                    recheckSuspects();
+                }
+                for( Future<?> future : pending ) {
+                    future.get();
+                }
+                recheckSuspects();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            return checked;
+        }
+
+        void check(Chunk chunk) {
+            chunk.contracts.forEach((contractId, rows) -> {
+                final List<Violation> found = new ArrayList<>();
+                Chunk.verify(shard, contractId, rows, found::add);
+                if( !found.isEmpty() ) suspects.add(contractId);
+            });
+        }
+
+        /**
+         * Reads each suspect contract again in one transaction and reports what still fails. A contract that has been
+         * deleted since is skipped.
+         */
+        void recheckSuspects() {
+            Long contractId;
+            while( (contractId = suspects.poll()) != null ) {
+                final long id = contractId;
+                final Chunk chunk = consistently(() -> {
+                    final Chunk contract = new Chunk();
+                    jdbc.query(CONTRACT_SQL, rs -> {
+                        contract.contracts.put(id, new ContractRows(new Money(rs.getString(2), rs.getBigDecimal(3))));
+                    }, id);
+                    if( !contract.contracts.isEmpty() ) readRows(contract, id, id);
+                    return contract;
+                });
+                chunk.verify(shard, violations);
+            }
+        }
+
+        private Chunk consistently(Supplier<Chunk> read) {
+            for( int attempt = 1; ; attempt++ ) {
+                try {
+                    return consistentRead.execute(status -> read.get());
+                } catch (ConcurrencyFailureException e) {
+                    if( attempt == RECHECK_ATTEMPTS ) throw e;
+                }
+            }
+        }
+
+        Chunk readChunk(long after) {
+            final Chunk chunk = new Chunk();
+            jdbc.query(String.format(CONTRACTS_SQL, chunkSize), rs -> {
+                final long contractId = rs.getLong(1);
+                chunk.contracts.put(contractId, new ContractRows(new Money(rs.getString(2), rs.getBigDecimal(3))));
+                chunk.last = contractId;
+            }, after);
+            if( chunk.contracts.isEmpty() ) return chunk;
+            readRows(chunk, chunk.contracts.keySet().iterator().next(), chunk.last);
+            return chunk;
+        }
+
+        /**
+         * Reads the line items and join rows of the contracts of the chunk whose ids are in the given range.
+         */
+        private void readRows(Chunk chunk, long first, long last) {
+            jdbc.query(LINE_ITEMS_SQL, rs -> {
+                final ContractRows rows = chunk.contracts.get(rs.getLong(1));
+                if( rows != null ) {
+                    rows.lineItemCosts.add(new Money(rs.getString(3), rs.getBigDecimal(4)).times(rs.getInt(2)));
+                }
+            }, first, last);
+            jdbc.query(JOIN_ROWS_SQL, rs -> {
+                final ContractRows rows = chunk.contracts.get(rs.getLong(4));
+                if( rows != null ) {
+                    rows.joinRows.add(new long[]{
+                            rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)});
+                }
+            }, first, last);
+        }
+    }
+
+    /**
+     * The rows of one contract that are needed to check its invariants.
+     */
+    static final class ContractRows {
+        final Money totalCost;
+        final List<Money> lineItemCosts = new ArrayList<>();
+        /**
+         * Each row is the join row id, its contract id, the line item id, the line item contract id and the delivery
+         * contract id.
+         */
+        final List<long[]> joinRows = new ArrayList<>();
+
+        ContractRows(Money totalCost) {
+            this.totalCost = totalCost;
+        }
+    }
+
+    /**
+     * A run of contracts with ascending ids read from the database.
+     */
+    static final class Chunk {
+        final Map<Long, ContractRows> contracts = new LinkedHashMap<>();
+        long last;
+
+        void verify(int shard, Consumer<Violation> violations) {
+            contracts.forEach((contractId, rows) -> verify(shard, contractId, rows, violations));
+        }
+
+        static void verify(int shard, long contractId, ContractRows rows, Consumer<Violation> violations) {
+            // the total cost must be the sum of the line items
+            Money sum = new Money(rows.totalCost.getCurrency(), BigDecimal.ZERO);
+            try {
+                for( Money cost : rows.lineItemCosts ) {
+                    sum = sum.add(cost);
+                }
+                if( sum.getAmount().compareTo(rows.totalCost.getAmount()) != 0 ) {
+                    violations.accept(new Violation(shard, contractId, Kind.TOTAL_COST_MISMATCH,
+                            String.format("totalCost %s != sum of line items %s", rows.totalCost, sum)));
+                }
+            } catch (IllegalArgumentException e) {
+                violations.accept(new Violation(shard, contractId, Kind.TOTAL_COST_MISMATCH, e.getMessage()));
+            }
+
+            // a line item must be in at most one delivery and a join row must not span contracts
+            final Map<Long, Integer> deliveriesPerLineItem = new HashMap<>();
+            for( long[] row : rows.joinRows ) {
+                deliveriesPerLineItem.merge(row[2], 1, Integer::sum);
+                if( row[1] != row[3] || row[1] != row[4] ) {
+                    violations.accept(new Violation(shard, contractId, Kind.JOIN_ROW_CONTRACT_MISMATCH,
+                            String.format("join row %d has contract %d but line item contract %d " +
+                                    "and delivery contract %d", row[0], row[1], row[3], row[4])));
+                }
+            }
+            deliveriesPerLineItem.forEach((lineItemId, count) -> {
+                if( count > 1 ) {
+                    violations.accept(new Violation(shard, contractId, Kind.LINE_ITEM_IN_MANY_DELIVERIES,
+                            String.format("line item %d is in %d deliveries", lineItemId, count)));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * A change record written in the same transaction as the contract it describes. The ContractOutboxRelay publishes and
+ * then deletes these so that downstream systems can read the changes rather than scan the contract tables. There is
+ * deliberately no foreign key to the contract so that the record of a change outlives the contract.
+ */
+@Entity
+@Table(name = "CONTRACT_OUTBOX")
+class ContractOutboxEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "ID", nullable=false, updatable=false)
+    private Long id;
+
+    @Column(name = "CONTRACT_ID", updatable = false)
+    private Long contractId;
+
+    @Column(name = "CREATED_AT", updatable = false)
+    private Date createdAt;
+
+    @Lob
+    @Column(name = "PAYLOAD", updatable = false, length = 1048576)
+    private String payload;
+
+    ContractOutboxEntry(){}
+
+    ContractOutboxEntry(Long contractId, String payload) {
+        this.contractId = contractId;
+        this.createdAt = new Date();
+        this.payload = payload;
+    }
+
+    Long getId() {
+        return id;
+    }
+
+    Long getContractId() {
+        return contractId;
+    }
+
+    Date getCreatedAt() {
+        return createdAt;
+    }
+
+    String getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Moves contract changes from the outbox to a sink in batches. A batch is read, published and deleted in one
+ * transaction so a batch that fails to publish is rolled back and published again by the next run. A batch that is
+ * published but whose deletion fails to commit is also published again so delivery is at least once. Only one relay
+ * should run against an outbox at a time else changes may be published out of order. When contract shards are
+ * configured each shard has its own outbox and every shard is relayed.
+ */
+@Named("contractOutboxRelay")
+public class ContractOutboxRelay {
+
+    @Inject ContractOutboxRespository contractOutboxRespository;
+
+    @Inject PlatformTransactionManager transactionManager;
+
+    @Inject Optional<ContractShards> contractShards;
+
+    /**
+     * Publishes and removes up to batchSize of the oldest changes from each outbox. Returns the number published.
+     */
+    public int relayBatch(ContractChangeSink sink, int batchSize) {
+        if( contractShards.isPresent() ) {
+            return contractShards.get().shards().stream()
+                    .mapToInt(shard -> relayBatch(shard.index, shard.transactionTemplate, shard.outbox, sink, batchSize))
+                    .sum();
+        } else {
+            return relayBatch(0, new TransactionTemplate(transactionManager), contractOutboxRespository, sink,
+                    batchSize);
+        }
+    }
+
+    /**
+     * Relays batches until the outbox is empty. Returns the number of changes published. This is intended to be
+     * run periodically by a scheduler.
+     */
+    public long drain(ContractChangeSink sink, int batchSize) {
+        long published = 0;
+        int relayed;
+        do {
+            relayed = relayBatch(sink, batchSize);
+            published += relayed;
+        } while( relayed > 0 );
+        return published;
+    }
+
+    static int relayBatch(int shard, TransactionTemplate transactionTemplate, ContractOutboxRespository outbox,
+                          ContractChangeSink sink, int batchSize) {
+        return transactionTemplate.execute(status -> {
+            final List<ContractOutboxEntry> entries = outbox.findOldest(new PageRequest(0, batchSize));
+            if( entries.isEmpty() ) return 0;
+            final List<ContractChange> changes = entries.stream()
+                    .map(e -> new ContractChange(shard, e.getId(), e.getContractId(), e.getCreatedAt(), e.getPayload()))
+                    .collect(Collectors.toList());
+            try {
+                sink.publish(changes);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            outbox.deleteInBatch(entries);
+            return entries.size();
+        });
+    }
+}
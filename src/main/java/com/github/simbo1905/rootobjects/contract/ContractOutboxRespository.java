@@ -0,0 +1,16 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+
+/**
+ * This is not a public class deliberately as only the ContractService writes to the outbox and only the
+ * ContractOutboxRelay reads from it.
+ */
+interface ContractOutboxRespository extends JpaRepository<ContractOutboxEntry, Long> {
+    @Query("select e from ContractOutboxEntry e order by e.id")
+    List<ContractOutboxEntry> findOldest(Pageable page);
+}
@@ -1,12 +1,105 @@
 package com.github.simbo1905.rootobjects.contract;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 /**
  * This is not a public class deliberately as we want a service class to save things in the correct order in a transaction.
  */
 interface ContractRespository extends JpaRepository<Contract, Long> {
     @Query("select c from Contract c where c.name = ?1")
     Contract findByName(String name);
+
+    @Query("select c from Contract c where c.name like ?1 order by c.name")
+    List<Contract> findByNameLike(String pattern);
+
+    @Query("select new com.github.simbo1905.rootobjects.contract.ContractSummary(" +
+            "c.name, c.totalCost.currency, c.totalCost.amount, " +
+            "(select count(l) from LineItem l where l.contract = c), " +
+            "(select count(d) from Delivery d where d.contract = c)) " +
+            "from Contract c order by c.name")
+    List<ContractSummary> findSummaries();
+
+    /*
+     * The projection queries of a ContractView. They select values rather than entities so nothing is managed.
+     */
+
+    @Query("select c.contractId, c.name, c.totalCost.currency, c.totalCost.amount, c.closedAt " +
+            "from Contract c where c.name = ?1")
+    List<Object[]> findViewHeader(String name);
+
+    @Query("select d.deliveryId, d.date, d.location " +
+            "from Delivery d where d.contract.contractId = ?1 order by d.deliveryId")
+    List<Object[]> findViewDeliveries(Long contractId);
+
+    @Query("select l.id, p.id, p.sku, l.unitPrice.currency, l.unitPrice.amount, l.quantity, " +
+            "(select dli.delivery.deliveryId from DeliveryLineItem dli where dli.lineItem = l) " +
+            "from LineItem l join l.product p where l.contract.contractId = ?1 order by l.id")
+    List<Object[]> findViewLineItems(Long contractId);
+
+    /**
+     * The contracts closed before the given date that can be archived. A contract whose name is already in the archive
+     * is left out as the archive holds one contract per name.
+     */
+    @Query("select c.contractId from Contract c where c.closedAt < ?1 " +
+            "and not exists (select a.id from ArchivedContract a where a.name = c.name) " +
+            "order by c.closedAt, c.contractId")
+    List<Long> findClosedBefore(Date closedBefore, Pageable page);
+
+    @Query("select count(c) from Contract c where c.closedAt < ?1 " +
+            "and exists (select a.id from ArchivedContract a where a.name = c.name)")
+    long countClosedBeforeWithArchivedName(Date closedBefore);
+
+    /**
+     * Locks the rows of the given contracts until the end of the transaction and returns the ids of those that still
+     * exist. A save of one of them then waits and fails once the contract is gone as every save updates the version.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c.contractId from Contract c where c.contractId in ?1")
+    List<Long> lockContracts(Collection<Long> contractIds);
+
+    /*
+     * Load whole contracts with one query per collection rather than one per contract. The join table entities are
+     * fetched with the contracts as the contract reads them when it is loaded. The collections are lists so they are
+     * fetched by separate queries which fill in the collections of the contracts that the first query loaded.
+     */
+
+    @Query("select distinct c from Contract c left join fetch c.deliveryLineItems dli left join fetch dli.delivery " +
+            "left join fetch dli.lineItem l left join fetch l.product where c.contractId in ?1")
+    List<Contract> findAllWithAssignments(Collection<Long> contractIds);
+
+    @Query("select distinct c from Contract c left join fetch c.lineItems l left join fetch l.product " +
+            "where c.contractId in ?1")
+    List<Contract> findAllWithLineItems(Collection<Long> contractIds);
+
+    @Query("select distinct c from Contract c left join fetch c.deliveries where c.contractId in ?1")
+    List<Contract> findAllWithDeliveries(Collection<Long> contractIds);
+
+    /*
+     * The bulk deletes of archived contracts. They are run children first so that no foreign key is violated.
+     */
+
+    @Modifying
+    @Query("delete from DeliveryLineItem d where d.contract.contractId in ?1")
+    int deleteDeliveryLineItems(Collection<Long> contractIds);
+
+    @Modifying
+    @Query("delete from LineItem l where l.contract.contractId in ?1")
+    int deleteLineItems(Collection<Long> contractIds);
+
+    @Modifying
+    @Query("delete from Delivery d where d.contract.contractId in ?1")
+    int deleteDeliveries(Collection<Long> contractIds);
+
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Contract c where c.contractId in ?1")
+    int deleteContracts(Collection<Long> contractIds);
 }
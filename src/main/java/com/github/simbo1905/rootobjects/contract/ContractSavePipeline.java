@@ -0,0 +1,280 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Saves a stream of edits to many contracts concurrently. Each contract name is mapped to one of a fixed number of
+ * lanes and each lane has a single writer thread so the edits to a contract are applied one at a time in the order
+ * they were submitted and none are lost, while contracts in different lanes are saved in parallel. The name is used
+ * rather than the contract id as it is the public key of a contract and a new contract has no id until it is saved.
+ *
+ * A writer takes every edit waiting in its lane and applies the edits to the same contract together in one
+ * transaction that loads the contract, applies the edits in order and saves it, so a burst of edits to one contract
+ * costs one transaction and one outbox entry. The transaction is opened by the ContractService so in shard mode it is
+ * a transaction on the shard of the contract. If any of those edits throws the transaction is rolled back and each of
+ * the edits is retried in its own transaction so that only the edits that fail are failed. If an edit or the save
+ * throws an Error every edit to that contract in the batch that is not yet complete is failed with it and the writer
+ * carries on with the next contract so that no future is left incomplete and the lane keeps draining.
+ *
+ * Lanes are bounded. When a lane is full submit blocks until the writer has caught up which pushes back on the
+ * producer. This is configured as a bean with the lane count and capacity as constructor arguments.
+ */
+public class ContractSavePipeline implements AutoCloseable {
+
+    /**
+     * A change to a contract. It is applied to the contract within the transaction that saves it. An edit to a
+     * contract that does not exist yet is applied to a new contract with that name.
+     */
+    public interface ContractEdit {
+        void apply(Contract contract);
+    }
+
+    private static final class Pending {
+        final String name;
+        final ContractEdit edit;
+        final CompletableFuture<Void> saved = new CompletableFuture<>();
+
+        Pending(String name, ContractEdit edit) {
+            this.name = name;
+            this.edit = edit;
+        }
+    }
+
+    /**
+     * Put on each lane by close after the last edit.
+     */
+    private static final Pending STOP = new Pending(null, null);
+
+    private final ContractService contractService;
+    private final List<BlockingQueue<Pending>> lanes = new ArrayList<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final int queueCapacity;
+
+    /**
+     * Submitters hold the read lock so that close can wait for submissions in progress before it stops the lanes.
+     */
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed = false;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder saved = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    public ContractSavePipeline(ContractService contractService, int laneCount, int queueCapacity) {
+        if( laneCount < 1 ) throw new IllegalArgumentException("laneCount " + laneCount);
+        if( queueCapacity < 1 ) throw new IllegalArgumentException("queueCapacity " + queueCapacity);
+        this.contractService = contractService;
+        this.queueCapacity = queueCapacity;
+        for( int lane = 0; lane < laneCount; lane++ ) {
+            final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(queueCapacity);
+            lanes.add(queue);
+            final Thread writer = new Thread(() -> write(queue), "contract-save-lane-" + lane);
+            writer.setDaemon(true);
+            writers.add(writer);
+            writer.start();
+        }
+    }
+
+    public int laneOf(String contractName) {
+        return Math.floorMod(contractName.hashCode(), lanes.size());
+    }
+
+    /**
+     * Queues an edit to the named contract blocking while its lane is full. The future completes when the edit has
+     * been committed or completes exceptionally with what the edit or the save threw.
+     */
+    public CompletableFuture<Void> submit(String contractName, ContractEdit edit) throws InterruptedException {
+        final Pending pending = new Pending(contractName, edit);
+        closing.readLock().lockInterruptibly();
+        try {
+            if( closed ) throw new IllegalStateException("pipeline is closed");
+            lanes.get(laneOf(contractName)).put(pending);
+            submitted.increment();
+        } finally {
+            closing.readLock().unlock();
+        }
+        return pending.saved;
+    }
+
+    private void write(BlockingQueue<Pending> lane) {
+        final List<Pending> batch = new ArrayList<>(queueCapacity);
+        while( true ) {
+            try {
+                batch.add(lane.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            lane.drainTo(batch, queueCapacity);
+            boolean stop = false;
+            final Map<String, List<Pending>> byContract = new LinkedHashMap<>();
+            for( Pending pending : batch ) {
+                if( pending == STOP ) {
+                    stop = true;
+                } else {
+                    byContract.computeIfAbsent(pending.name, name -> new ArrayList<>()).add(pending);
+                }
+            }
+            byContract.forEach((name, edits) -> {
+                try {
+                    save(name, edits);
+                } catch (Throwable t) {
+                    fail(edits, t);
+                }
+            });
+            batch.clear();
+            if( stop ) return;
+        }
+    }
+
+    private void save(String name, List<Pending> edits) {
+        try {
+            commit(name, edits);
+        } catch (RuntimeException e) {
+            if( edits.size() == 1 ) {
+                failed.increment();
+                edits.get(0).saved.completeExceptionally(e);
+            } else {
+                edits.forEach(pending -> save(name, Collections.singletonList(pending)));
+            }
+            return;
+        }
+        saved.add(edits.size());
+        edits.forEach(pending -> pending.saved.complete(null));
+    }
+
+    private void fail(List<Pending> edits, Throwable cause) {
+        for( Pending pending : edits ) {
+            if( pending.saved.completeExceptionally(cause) ) failed.increment();
+        }
+    }
+
+    private void commit(String name, List<Pending> edits) {
+        final long started = System.nanoTime();
+        contractService.update(name, contract -> {
+            for( Pending pending : edits ) {
+                pending.edit.apply(contract);
+            }
+        });
+        final long elapsed = System.nanoTime() - started;
+        transactions.increment();
+        commitNanos.add(elapsed);
+        maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    /**
+     * The number of edits waiting in each lane.
+     */
+    public int[] laneDepths() {
+        return lanes.stream().mapToInt(BlockingQueue::size).toArray();
+    }
+
+    public Metrics metrics() {
+        final long count = transactions.sum();
+        return new Metrics(submitted.sum(), saved.sum(), failed.sum(), count,
+                count == 0 ? 0 : commitNanos.sum() / count / 1000, maxCommitNanos.get() / 1000, laneDepths());
+    }
+
+    /**
+     * Stops taking edits, saves the edits already queued and stops the writers. If the calling thread is interrupted
+     * it stops waiting for the writers and returns with its interrupt flag set.
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            if( closed ) return;
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            for( BlockingQueue<Pending> lane : lanes ) {
+                lane.put(STOP);
+            }
+            for( Thread writer : writers ) {
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A snapshot of the pipeline counters. Edits that were coalesced share a transaction so there are fewer
+     * transactions than saved edits when edits pile up.
+     */
+    public static final class Metrics {
+        private final long submitted;
+        private final long saved;
+        private final long failed;
+        private final long transactions;
+        private final long meanCommitMicros;
+        private final long maxCommitMicros;
+        private final int[] laneDepths;
+
+        Metrics(long submitted, long saved, long failed, long transactions, long meanCommitMicros,
+                long maxCommitMicros, int[] laneDepths) {
+            this.submitted = submitted;
+            this.saved = saved;
+            this.failed = failed;
+            this.transactions = transactions;
+            this.meanCommitMicros = meanCommitMicros;
+            this.maxCommitMicros = maxCommitMicros;
+            this.laneDepths = laneDepths;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getSaved() {
+            return saved;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * The mean time to load, edit and commit a contract.
+         */
+        public long getMeanCommitMicros() {
+            return meanCommitMicros;
+        }
+
+        public long getMaxCommitMicros() {
+            return maxCommitMicros;
+        }
+
+        public int[] getLaneDepths() {
+            return laneDepths.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{" +
+                    "submitted=" + submitted +
+                    ", saved=" + saved +
+                    ", failed=" + failed +
+                    ", transactions=" + transactions +
+                    ", meanCommitMicros=" + meanCommitMicros +
+                    ", maxCommitMicros=" + maxCommitMicros +
+                    ", laneDepths=" + Arrays.toString(laneDepths) +
+                    '}';
+        }
+    }
+}
@@ -1,21 +1,255 @@
 package com.github.simbo1905.rootobjects.contract;
 
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.EntityNotFoundException;
 import javax.transaction.Transactional;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Named("contractService")
 public class ContractService {
 
     @Inject ContractRespository contractRespository;
 
+    @Inject ContractOutboxRespository contractOutboxRespository;
+
+    @Inject ContractArchiveRespository contractArchiveRespository;
+
+    @Inject PlatformTransactionManager transactionManager;
+
+    /**
+     * When contract shards are configured contracts are loaded and saved in their shard rather than in the default
+     * database.
+     */
+    @Inject Optional<ContractShards> contractShards;
+
+    /**
+     * Saves the contract and writes a record of what changed to the outbox. A transaction is used explicitly so that
+     * the two are atomic even when the caller has no transaction of its own. A contract restored from the archive
+     * cannot be saved. The changes of the contract are only gone once that transaction commits.
+     */
     @Transactional
     public void save(Contract contract) {
-        contractRespository.save(contract);
+        checkNotArchived(contract);
+        if( contractShards.isPresent() ) {
+            contractShards.get().save(contract);
+        } else {
+            new TransactionTemplate(transactionManager).execute(status ->
+                    saveWithChanges(contract, contractRespository, contractOutboxRespository, 0));
+        }
+    }
+
+    /**
+     * Loads the named contract, or creates it if there is none, applies the edit to it and saves it in one
+     * transaction. In shard mode that is a transaction on the shard of the contract which the load and the save join.
+     */
+    void update(String name, Consumer<Contract> edit) {
+        final Supplier<Void> work = () -> {
+            Contract contract = loadByName(name);
+            if( contract == null ) contract = new Contract(name);
+            edit.accept(contract);
+            save(contract);
+            return null;
+        };
+        if( contractShards.isPresent() ) {
+            contractShards.get().inShard(name, shard -> work.get());
+        } else {
+            new TransactionTemplate(transactionManager).execute(status -> work.get());
+        }
+    }
+
+    private static void checkNotArchived(Contract contract) {
+        if( contract.isArchived() ) {
+            throw new IllegalStateException("archived contracts are read only: " + contract.getName());
+        }
+    }
+
+    /**
+     * Saves a compact contract. The contract entities are loaded, or created for a new contract, and brought into
+     * line with the compact form just for the save. Returns a compact form of the saved contract which has the ids
+     * of any new line items and deliveries so that it can be edited and saved again. The load, the save and the
+     * reload are one transaction which in shard mode is a transaction on the shard of the contract.
+     */
+    public CompactContract save(CompactContract compact) {
+        if( contractShards.isPresent() ) {
+            return contractShards.get().inShard(compact.getName(), shard -> {
+                shard.refreshProductsOf(compact.getName());
+                shard.refreshProducts(compact.productIds());
+                return saveCompact(compact, shard.contracts, shard.outbox, shard.archive, shard.index);
+            });
+        } else {
+            return new TransactionTemplate(transactionManager).execute(status ->
+                    saveCompact(compact, contractRespository, contractOutboxRespository, contractArchiveRespository,
+                            0));
+        }
+    }
+
+    static CompactContract saveCompact(CompactContract compact, ContractRespository contracts,
+                                       ContractOutboxRespository outbox, ContractArchiveRespository archive,
+                                       int shard) {
+        final Contract loaded = loadOrRestore(compact.getName(), contracts, archive);
+        if( compact.getContractId() == null && loaded != null ) {
+            throw new IllegalStateException("contract already exists: " + compact.getName());
+        }
+        if( compact.getContractId() != null && loaded == null ) {
+            throw new IllegalStateException("contract no longer exists: " + compact.getName());
+        }
+        final Contract contract = loaded != null ? loaded : new Contract(compact.getName());
+        checkNotArchived(contract);
+        compact.applyTo(contract);
+        saveWithChanges(contract, contracts, outbox, shard);
+        return CompactContract.of(loadOrRestore(compact.getName(), contracts, archive));
+    }
+
+    /**
+     * A new contract or a contract that has changed gets an outbox entry. A detached contract is merged into a copy so
+     * the ids of its new entities are copied back to it. The copy is flushed first as that is when its version is
+     * incremented. Merge inserts a detached contract whose row has gone as a new contract, or fails to find one of its
+     * line items or deliveries, so a contract that was deleted or archived since it was loaded is caught by either.
+     * The changes that were written are taken off the contract and are put back if the transaction rolls back so that
+     * they are written again by the next save rather than lost, while a second save in the same transaction does not
+     * write them twice.
+     */
+    static Contract saveWithChanges(Contract contract, ContractRespository contracts, ContractOutboxRespository outbox,
+                                    int shard) {
+        final boolean created = contract.getContractId() == null;
+        final Contract saved;
+        try {
+            saved = contracts.save(contract);
+        } catch (EntityNotFoundException e) {
+            throw gone(contract, e);
+        }
+        if( !created && !contract.getContractId().equals(saved.getContractId()) ) {
+            throw gone(contract, null);
+        }
+        if( created || !contract.changes.isEmpty() ) {
+            outbox.save(new ContractOutboxEntry(saved.getContractId(),
+                    contract.changes.toJson(contract, saved, created, shard)));
+        }
+        if( saved != contract ) {
+            contracts.flush();
+            contract.copyIdsFrom(saved);
+        }
+        takeChangesUntilCommit(contract);
+        return saved;
+    }
+
+    private static void takeChangesUntilCommit(Contract contract) {
+        final ContractChanges written = contract.changes.copy();
+        contract.changes.clear();
+        if( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if( status != STATUS_COMMITTED ) contract.changes.putBack(written);
+                }
+            });
+        }
+    }
+
+    private static OptimisticLockingFailureException gone(Contract contract, Throwable cause) {
+        return new OptimisticLockingFailureException("contract was archived or deleted since it was loaded: "
+                + contract.getName(), cause);
     }
 
+    /**
+     * Loads a contract from the hot tables or else restores it from the archive. A restored contract is a read only
+     * copy which can be checked with isArchived.
+     */
     @Transactional
     public Contract loadByName(String name) {
-        return contractRespository.findByName(name);
+        if( contractShards.isPresent() ) {
+            return contractShards.get().loadByName(name);
+        } else {
+            return loadOrRestore(name, contractRespository, contractArchiveRespository);
+        }
+    }
+
+    /**
+     * Loads an immutable view of a contract for code that only reads it. The view is built from projection queries in
+     * a read only transaction so no entities are loaded into the persistence context. It can be cached and shared
+     * between threads. A contract that is in the archive is viewed from its snapshot with its products projected.
+     *
+     * The queries run in one repeatable read transaction so the rows that they read cannot change until the view is
+     * built. A delivery inserted between the queries can still show up in the line item rows so the deliveries and
+     * line items are read again when that happens. In shard mode the transaction is on the shard of the contract.
+     */
+    public ContractView loadViewByName(String name) {
+        if( contractShards.isPresent() ) {
+            return contractShards.get().readInShard(name, TransactionDefinition.ISOLATION_REPEATABLE_READ,
+                    shard -> loadView(name, shard.contracts, shard.archive));
+        } else {
+            final TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            readOnly.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+            return readOnly.execute(status -> loadView(name, contractRespository, contractArchiveRespository));
+        }
+    }
+
+    static final int VIEW_READ_ATTEMPTS = 3;
+
+    static ContractView loadView(String name, ContractRespository contracts, ContractArchiveRespository archive) {
+        final List<Object[]> header = contracts.findViewHeader(name);
+        if( header.isEmpty() ) {
+            final List<byte[]> snapshot = archive.findSnapshotByName(name);
+            return snapshot.isEmpty() ? null : ContractSnapshot.readView(snapshot.get(0), archive::findProductRows);
+        }
+        final Long contractId = (Long) header.get(0)[0];
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                return ContractView.of(header.get(0), contracts.findViewDeliveries(contractId),
+                        contracts.findViewLineItems(contractId));
+            } catch (ConcurrencyFailureException e) {
+                if( attempt == VIEW_READ_ATTEMPTS ) throw e;
+            }
+        }
+    }
+
+    static Contract loadOrRestore(String name, ContractRespository contracts, ContractArchiveRespository archive) {
+        final Contract contract = contracts.findByName(name);
+        if( contract != null ) return contract;
+        final ArchivedContract archived = archive.findByName(name);
+        return archived == null ? null : ContractSnapshot.read(archived.getSnapshot(), archive::findProducts);
+    }
+
+    /**
+     * Finds the contracts whose name starts with the given prefix ordered by name.
+     */
+    @Transactional
+    public List<Contract> searchByName(String prefix) {
+        final String pattern = prefix + "%";
+        if( contractShards.isPresent() ) {
+            return contractShards.get().fanOut(shard -> shard.contracts.findByNameLike(pattern).stream()
+                            .map(ContractShards::initialized).collect(Collectors.toList()))
+                    .stream().sorted(Comparator.comparing(Contract::getName)).collect(Collectors.toList());
+        } else {
+            return contractRespository.findByNameLike(pattern);
+        }
+    }
+
+    /**
+     * Summarises every contract ordered by name.
+     */
+    @Transactional
+    public List<ContractSummary> summaries() {
+        if( contractShards.isPresent() ) {
+            return contractShards.get().fanOut(shard -> shard.contracts.findSummaries())
+                    .stream().sorted(Comparator.comparing(ContractSummary::getName)).collect(Collectors.toList());
+        } else {
+            return contractRespository.findSummaries();
+        }
     }
 }
@@ -0,0 +1,287 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.product.CatalogueListener;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Spreads contracts over a number of databases. As the contract is the root of its aggregate nothing within it ever
+ * refers to another contract so a whole contract can live in one shard. The shard of a contract is derived from its
+ * name which is the key that is used to load it. Changing the number of shards changes the shard of most contracts so
+ * adding a shard means moving contracts.
+ *
+ * Each shard has its own entity manager factory and transactions so each shard generates its own ids. Products belong
+ * to the shared catalogue that is read via the ProductService. A line item has a foreign key to its product so the
+ * shard holds a copy of each product that its contracts use. The copies of the products of a contract are refreshed
+ * from the catalogue when the contract is saved, and as a CatalogueListener the shards update the copies that they
+ * hold of the products that an upsert changes, so loading and searching only read. A line item is costed at the unit
+ * price that it was created at so a copy that is behind the catalogue only shows an old description or price.
+ *
+ * This is configured as a bean to have the ContractService route to the shards rather than to the default database.
+ */
+public class ContractShards implements CatalogueListener, AutoCloseable {
+
+    /**
+     * The per shard persistence machinery.
+     */
+    static final class Shard {
+        final int index;
+        final EntityManagerFactory entityManagerFactory;
+        final TransactionTemplate transactionTemplate;
+        final ContractRespository contracts;
+        final ContractOutboxRespository outbox;
+        final ContractArchiveRespository archive;
+        final JdbcTemplate jdbc;
+        final DataSource dataSource;
+        final PlatformTransactionManager transactionManager;
+        private final JdbcTemplate catalogue;
+
+        Shard(int index, DataSource dataSource, Properties jpaProperties, JdbcTemplate catalogue) {
+            this.index = index;
+            this.dataSource = dataSource;
+            this.catalogue = catalogue;
+            final LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+            factoryBean.setPersistenceUnitName("shard" + index);
+            factoryBean.setPackagesToScan("com.github.simbo1905.rootobjects");
+            factoryBean.setDataSource(dataSource);
+            factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+            factoryBean.setJpaProperties(jpaProperties);
+            factoryBean.afterPropertiesSet();
+            this.entityManagerFactory = factoryBean.getObject();
+            final JpaTransactionManager transactionManager = new JpaTransactionManager(entityManagerFactory);
+            transactionManager.setDataSource(dataSource);
+            this.transactionManager = transactionManager;
+            this.transactionTemplate = new TransactionTemplate(transactionManager);
+            final JpaRepositoryFactory repositoryFactory = new JpaRepositoryFactory(
+                    SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory));
+            this.contracts = repositoryFactory.getRepository(ContractRespository.class);
+            this.outbox = repositoryFactory.getRepository(ContractOutboxRespository.class);
+            this.archive = repositoryFactory.getRepository(ContractArchiveRespository.class);
+            this.jdbc = new JdbcTemplate(dataSource);
+        }
+
+        /**
+         * Brings the copies of the given products in this shard into line with the catalogue inserting those that
+         * are missing and updating those that differ.
+         */
+        void refreshProducts(Collection<Long> productIds) {
+            refresh(productIds, true);
+        }
+
+        /**
+         * Updates the copies of the given products that this shard already holds. Products that no contract in this
+         * shard uses are not copied.
+         */
+        void refreshCopies(Collection<Long> productIds) {
+            refresh(productIds, false);
+        }
+
+        private void refresh(Collection<Long> productIds, boolean insertMissing) {
+            final List<Long> ids = new ArrayList<>(new LinkedHashSet<>(productIds));
+            for( int from = 0; from < ids.size(); from += PRODUCTS_PER_QUERY ) {
+                final List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + PRODUCTS_PER_QUERY));
+                final Map<Long, Object[]> copies = readProducts(jdbc, chunk);
+                if( !insertMissing && copies.isEmpty() ) continue;
+                final Map<Long, Object[]> current = readProducts(catalogue, chunk);
+                if( current.size() != chunk.size() ) {
+                    final List<Long> missing = new ArrayList<>(chunk);
+                    missing.removeAll(current.keySet());
+                    throw new IllegalStateException("products not in the catalogue: " + missing);
+                }
+                current.forEach((id, row) -> {
+                    final Object[] copy = copies.get(id);
+                    if( copy == null ) {
+                        if( insertMissing ) jdbc.update(INSERT_PRODUCT_SQL, row);
+                    } else if( !sameProduct(row, copy) ) {
+                        jdbc.update(UPDATE_PRODUCT_SQL, row);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Refreshes the products of the line items of the contract with the given name.
+         */
+        void refreshProductsOf(String name) {
+            refreshProducts(jdbc.queryForList("select distinct l.PRODUCT_ID from LINEITEM l " +
+                    "join CONTRACT c on c.CONTRACT_ID = l.CONTRACT_ID where c.NAME = ?", Long.class, name));
+        }
+
+        /**
+         * Each row is the sku, description, currency, amount and id of a product in the order of the insert and
+         * update statements.
+         */
+        private static Map<Long, Object[]> readProducts(JdbcTemplate jdbc, List<Long> ids) {
+            final Map<Long, Object[]> rows = new HashMap<>();
+            final String in = String.join(", ", Collections.nCopies(ids.size(), "?"));
+            jdbc.query("select SKU, DESCRIPTION, CURRENCY, AMOUNT, PRODUCT_ID from PRODUCT " +
+                    "where PRODUCT_ID in (" + in + ")", rs -> {
+                        rows.put(rs.getLong(5), new Object[]{rs.getString(1), rs.getString(2), rs.getString(3),
+                                rs.getBigDecimal(4), rs.getLong(5)});
+                    }, ids.toArray());
+            return rows;
+        }
+
+        private static boolean sameProduct(Object[] row, Object[] copy) {
+            return Objects.equals(row[0], copy[0]) && Objects.equals(row[1], copy[1]) && Objects.equals(row[2], copy[2])
+                    && (row[3] == null ? copy[3] == null : copy[3] != null
+                        && ((BigDecimal) row[3]).compareTo((BigDecimal) copy[3]) == 0);
+        }
+    }
+
+    /**
+     * Keeps the in lists of the product queries well within what a statement can hold.
+     */
+    static final int PRODUCTS_PER_QUERY = 500;
+
+    static final String INSERT_PRODUCT_SQL =
+            "insert into PRODUCT (SKU, DESCRIPTION, CURRENCY, AMOUNT, PRODUCT_ID) values (?, ?, ?, ?, ?)";
+
+    static final String UPDATE_PRODUCT_SQL =
+            "update PRODUCT set SKU = ?, DESCRIPTION = ?, CURRENCY = ?, AMOUNT = ? where PRODUCT_ID = ?";
+
+    private final List<Shard> shards = new ArrayList<>();
+
+    private final ExecutorService fanOut;
+
+    /**
+     * @param dataSources the databases of the shards
+     * @param jpaProperties the JPA properties of the entity manager factory of each shard
+     * @param catalogue the database that holds the product catalogue
+     */
+    public ContractShards(List<DataSource> dataSources, Properties jpaProperties, DataSource catalogue) {
+        if( dataSources.isEmpty() ) throw new IllegalArgumentException("no shards");
+        final JdbcTemplate catalogueJdbc = new JdbcTemplate(catalogue);
+        for( int index = 0; index < dataSources.size(); index++ ) {
+            shards.add(new Shard(index, dataSources.get(index), jpaProperties, catalogueJdbc));
+        }
+        this.fanOut = Executors.newFixedThreadPool(shards.size(), r -> {
+            final Thread thread = new Thread(r, "contract-shards");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    List<Shard> shards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * The shard that holds the contract with the given name.
+     */
+    public int shardOf(String contractName) {
+        return Math.floorMod(contractName.hashCode(), shards.size());
+    }
+
+    /**
+     * Runs work within a transaction on the shard that holds the contract with the given name.
+     */
+    <T> T inShard(String contractName, Function<Shard, T> work) {
+        final Shard shard = shards.get(shardOf(contractName));
+        return shard.transactionTemplate.execute(status -> work.apply(shard));
+    }
+
+    /**
+     * Runs work within a read only transaction at the given isolation level on the shard that holds the contract
+     * with the given name.
+     */
+    <T> T readInShard(String contractName, int isolationLevel, Function<Shard, T> work) {
+        final Shard shard = shards.get(shardOf(contractName));
+        return readOnly(shard, isolationLevel).execute(status -> work.apply(shard));
+    }
+
+    private static TransactionTemplate readOnly(Shard shard, int isolationLevel) {
+        final TransactionTemplate readOnly = new TransactionTemplate(shard.transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.setIsolationLevel(isolationLevel);
+        return readOnly;
+    }
+
+    /**
+     * Runs a query within a read only transaction on every shard in parallel and concatenates the results in shard
+     * order.
+     */
+    <T> List<T> fanOut(Function<Shard, List<T>> query) {
+        final List<Future<List<T>>> futures = new ArrayList<>();
+        shards.forEach(shard -> futures.add(fanOut.submit(() -> readOnly(shard, TransactionDefinition.ISOLATION_DEFAULT)
+                .execute(status -> query.apply(shard)))));
+        final List<T> results = new ArrayList<>();
+        try {
+            for( Future<List<T>> future : futures ) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if( e.getCause() instanceof RuntimeException ) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    void save(Contract contract) {
+        inShard(contract.getName(), shard -> {
+            final List<Long> productIds = new ArrayList<>();
+            contract.getLineItems().forEach(l -> productIds.add(l.getProduct().getId()));
+            shard.refreshProducts(productIds);
+            return ContractService.saveWithChanges(contract, shard.contracts, shard.outbox, shard.index);
+        });
+    }
+
+    Contract loadByName(String name) {
+        return readInShard(name, TransactionDefinition.ISOLATION_DEFAULT,
+                shard -> initialized(ContractService.loadOrRestore(name, shard.contracts, shard.archive)));
+    }
+
+    /**
+     * Updates the copies of the changed products in every shard that holds them, each shard in a transaction of its
+     * own. The catalogue has already committed so if a shard fails its copies stay behind until a contract that uses
+     * the product is next saved there.
+     */
+    @Override
+    public void productsChanged(Collection<Long> productIds) {
+        shards.forEach(shard -> shard.transactionTemplate.execute(status -> {
+            shard.refreshCopies(productIds);
+            return null;
+        }));
+    }
+
+    /**
+     * The contract is detached once the shard transaction ends so the lazy collections are loaded before then.
+     */
+    static Contract initialized(Contract contract) {
+        if( contract != null ) {
+            contract.getLineItems().size();
+            contract.getDeliveries().size();
+        }
+        return contract;
+    }
+
+    @Override
+    public void close() {
+        fanOut.shutdownNow();
+        shards.forEach(shard -> shard.entityManagerFactory.close());
+    }
+}
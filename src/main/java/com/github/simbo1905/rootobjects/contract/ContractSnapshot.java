@@ -0,0 +1,211 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a whole contract as a compact binary snapshot and reads it back. The format is a version number followed by
+ * the fields of the contract, then its deliveries and then its line items, each of which gives the position of its
+ * delivery (or -1) rather than a join table entity. Line items refer to their product by id. The bytes are gzipped.
+ */
+final class ContractSnapshot {
+
+    /**
+     * Version 2 added the created at time of the contract after the closed at time. Version 3 added the unit price of
+     * each line item after its quantity.
+     */
+    static final int VERSION = 3;
+
+    private ContractSnapshot() {}
+
+    static byte[] write(Contract contract) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(VERSION);
+            out.writeLong(contract.getContractId());
+            out.writeUTF(contract.getName());
+            out.writeUTF(contract.getTotalCost().getCurrency());
+            out.writeUTF(contract.getTotalCost().getAmount().toPlainString());
+            writeDate(out, contract.getClosedAt());
+            writeDate(out, contract.getCreatedAt());
+
+            final List<Delivery> deliveries = contract.getDeliveries();
+            final Map<Delivery, Integer> positions = new IdentityHashMap<>();
+            out.writeInt(deliveries.size());
+            for( Delivery delivery : deliveries ) {
+                positions.put(delivery, positions.size());
+                out.writeLong(delivery.deliveryId());
+                writeDate(out, delivery.getDate());
+                writeString(out, delivery.getLocation());
+            }
+
+            final List<LineItem> lineItems = contract.getLineItems();
+            out.writeInt(lineItems.size());
+            for( LineItem lineItem : lineItems ) {
+                out.writeLong(lineItem.lineItemId());
+                out.writeLong(lineItem.getProduct().getId());
+                out.writeInt(lineItem.getQuantity());
+                out.writeUTF(lineItem.getUnitPrice().getCurrency());
+                out.writeUTF(lineItem.getUnitPrice().getAmount().toPlainString());
+                out.writeInt(lineItem.delivery.map(positions::get).orElse(-1));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rebuilds a read only contract. The products are looked up in one call with the ids of all the products used. The
+     * line items of a snapshot written before unit prices were recorded are priced at the current product price.
+     */
+    static Contract read(byte[] snapshot, Function<Collection<Long>, List<Product>> products) {
+        final Rows rows = Rows.parse(snapshot);
+        final Contract contract = new Contract(rows.contractId, rows.name, rows.totalCost, rows.createdAt,
+                rows.closedAt);
+        final List<Delivery> deliveries = new ArrayList<>(rows.deliveryIds.length);
+        for( int d = 0; d < rows.deliveryIds.length; d++ ) {
+            final Delivery delivery = new Delivery(contract, rows.deliveryIds[d], rows.deliveryDates[d],
+                    rows.locations[d]);
+            deliveries.add(delivery);
+            contract.restore(delivery);
+        }
+
+        final Map<Long, Product> productsById = new HashMap<>();
+        if( rows.lineItemIds.length > 0 ) {
+            products.apply(rows.distinctProductIds()).forEach(p -> productsById.put(p.getId(), p));
+        }
+        for( int i = 0; i < rows.lineItemIds.length; i++ ) {
+            final Product product = productsById.get(rows.productIds[i]);
+            if( product == null ) throw new IllegalStateException("missing product " + rows.productIds[i]);
+            final int position = rows.deliveryPositions[i];
+            final Money unitPrice = rows.unitPrices[i] == null ? product.getPrice() : rows.unitPrices[i];
+            contract.restore(new LineItem(contract, rows.lineItemIds[i], product, unitPrice, rows.quantities[i]),
+                    position < 0 ? Optional.empty() : Optional.of(deliveries.get(position)));
+        }
+        return contract;
+    }
+
+    /**
+     * Builds a view straight from a snapshot without any entities. The products are looked up in one call which
+     * returns a row of the id, sku, currency and amount of each product. The sku is taken from the catalogue and the
+     * amount is only used for the line items of a snapshot that has no unit prices.
+     */
+    static ContractView readView(byte[] snapshot, Function<Collection<Long>, List<Object[]>> products) {
+        final Rows rows = Rows.parse(snapshot);
+        final long[] deliveryDates = new long[rows.deliveryIds.length];
+        for( int d = 0; d < deliveryDates.length; d++ ) {
+            deliveryDates[d] = rows.deliveryDates[d] == null ? ContractView.NO_DATE : rows.deliveryDates[d].getTime();
+        }
+
+        final Map<Long, Object[]> productsById = new HashMap<>();
+        if( rows.lineItemIds.length > 0 ) {
+            products.apply(rows.distinctProductIds()).forEach(p -> productsById.put((Long) p[0], p));
+        }
+        final int lineItemCount = rows.lineItemIds.length;
+        final String[] skus = new String[lineItemCount];
+        final Money[] unitPrices = new Money[lineItemCount];
+        for( int i = 0; i < lineItemCount; i++ ) {
+            final Object[] product = productsById.get(rows.productIds[i]);
+            if( product == null ) throw new IllegalStateException("missing product " + rows.productIds[i]);
+            skus[i] = (String) product[1];
+            unitPrices[i] = rows.unitPrices[i] != null ? rows.unitPrices[i]
+                    : new Money((String) product[2], (BigDecimal) product[3]);
+        }
+        return new ContractView(rows.contractId, rows.name, rows.totalCost, rows.closedAt, true,
+                rows.deliveryIds, deliveryDates, rows.locations, rows.lineItemIds, rows.productIds, skus, unitPrices,
+                rows.quantities, rows.deliveryPositions);
+    }
+
+    /**
+     * The fields of a snapshot as they were written. The unit prices are null for a snapshot older than version 3.
+     */
+    private static final class Rows {
+        long contractId;
+        String name;
+        Money totalCost;
+        Date closedAt;
+        Date createdAt;
+        long[] deliveryIds;
+        Date[] deliveryDates;
+        String[] locations;
+        long[] lineItemIds;
+        long[] productIds;
+        int[] quantities;
+        Money[] unitPrices;
+        int[] deliveryPositions;
+
+        Set<Long> distinctProductIds() {
+            final Set<Long> ids = new HashSet<>();
+            for( long id : productIds ) ids.add(id);
+            return ids;
+        }
+
+        static Rows parse(byte[] snapshot) {
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(snapshot)))) {
+                final int version = in.readInt();
+                if( version < 1 || version > VERSION ) {
+                    throw new IllegalStateException("unknown snapshot version " + version);
+                }
+                final Rows rows = new Rows();
+                rows.contractId = in.readLong();
+                rows.name = in.readUTF();
+                rows.totalCost = new Money(in.readUTF(), new BigDecimal(in.readUTF()));
+                rows.closedAt = readDate(in);
+                rows.createdAt = version >= 2 ? readDate(in) : null;
+
+                final int deliveryCount = in.readInt();
+                rows.deliveryIds = new long[deliveryCount];
+                rows.deliveryDates = new Date[deliveryCount];
+                rows.locations = new String[deliveryCount];
+                for( int d = 0; d < deliveryCount; d++ ) {
+                    rows.deliveryIds[d] = in.readLong();
+                    rows.deliveryDates[d] = readDate(in);
+                    rows.locations[d] = readString(in);
+                }
+
+                final int lineItemCount = in.readInt();
+                rows.lineItemIds = new long[lineItemCount];
+                rows.productIds = new long[lineItemCount];
+                rows.quantities = new int[lineItemCount];
+                rows.unitPrices = new Money[lineItemCount];
+                rows.deliveryPositions = new int[lineItemCount];
+                for( int i = 0; i < lineItemCount; i++ ) {
+                    rows.lineItemIds[i] = in.readLong();
+                    rows.productIds[i] = in.readLong();
+                    rows.quantities[i] = in.readInt();
+                    if( version >= 3 ) rows.unitPrices[i] = new Money(in.readUTF(), new BigDecimal(in.readUTF()));
+                    rows.deliveryPositions[i] = in.readInt();
+                }
+                return rows;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeBoolean(date != null);
+        if( date != null ) out.writeLong(date.getTime());
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if( value != null ) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+
+import java.math.BigDecimal;
+
+/**
+ * A read only summary of a contract built by a projection query so that listing contracts does not load the whole
+ * aggregate.
+ */
+public final class ContractSummary {
+    private final String name;
+    private final Money totalCost;
+    private final int lineItemCount;
+    private final int deliveryCount;
+
+    /**
+     * This is public as it is invoked by a JPQL constructor expression.
+     */
+    public ContractSummary(String name, String currency, BigDecimal amount, Long lineItemCount, Long deliveryCount) {
+        this.name = name;
+        this.totalCost = new Money(currency, amount);
+        this.lineItemCount = lineItemCount.intValue();
+        this.deliveryCount = deliveryCount.intValue();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Money getTotalCost() {
+        return totalCost;
+    }
+
+    public int getLineItemCount() {
+        return lineItemCount;
+    }
+
+    public int getDeliveryCount() {
+        return deliveryCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ContractSummary{" +
+                "name='" + name + '\'' +
+                ", totalCost=" + totalCost +
+                ", lineItemCount=" + lineItemCount +
+                ", deliveryCount=" + deliveryCount +
+                '}';
+    }
+}
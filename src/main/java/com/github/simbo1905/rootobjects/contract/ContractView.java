@@ -0,0 +1,223 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import org.springframework.dao.ConcurrencyFailureException;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * An immutable read only view of a whole contract aggregate. It is built from projection queries so Hibernate does not
+ * manage, snapshot or dirty check anything to build it. Rather than an object per line item and per delivery the
+ * fields are held in parallel arrays indexed by position: line item i is in the delivery at position deliveryOf(i) or
+ * in none if that is -1. The arrays are never handed out so a view can be cached and shared between threads.
+ */
+public final class ContractView {
+    private final long contractId;
+    private final String name;
+    private final Money totalCost;
+    private final long closedAt;
+    private final boolean archived;
+
+    private final long[] deliveryIds;
+    private final long[] deliveryDates;
+    private final String[] locations;
+
+    private final long[] lineItemIds;
+    private final long[] productIds;
+    private final String[] skus;
+    private final Money[] unitPrices;
+    private final int[] quantities;
+    private final int[] deliveryOf;
+
+    /**
+     * The line item positions of each delivery in line item order.
+     */
+    private final int[][] lineItemsOf;
+
+    static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * The arrays are filled before they are passed in. Final fields are only guaranteed to be seen by other threads as
+     * they were at the end of the constructor.
+     */
+    ContractView(long contractId, String name, Money totalCost, Date closedAt, boolean archived,
+                         long[] deliveryIds, long[] deliveryDates, String[] locations,
+                         long[] lineItemIds, long[] productIds, String[] skus, Money[] unitPrices, int[] quantities,
+                         int[] deliveryOf) {
+        this.contractId = contractId;
+        this.name = name;
+        this.totalCost = totalCost;
+        this.closedAt = closedAt == null ? NO_DATE : closedAt.getTime();
+        this.archived = archived;
+        this.deliveryIds = deliveryIds;
+        this.deliveryDates = deliveryDates;
+        this.locations = locations;
+        this.lineItemIds = lineItemIds;
+        this.productIds = productIds;
+        this.skus = skus;
+        this.unitPrices = unitPrices;
+        this.quantities = quantities;
+        this.deliveryOf = deliveryOf;
+
+        final int[] counts = new int[deliveryIds.length];
+        for( int delivery : deliveryOf ) {
+            if( delivery >= 0 ) counts[delivery]++;
+        }
+        this.lineItemsOf = new int[deliveryIds.length][];
+        for( int d = 0; d < counts.length; d++ ) {
+            lineItemsOf[d] = new int[counts[d]];
+            counts[d] = 0;
+        }
+        for( int i = 0; i < deliveryOf.length; i++ ) {
+            final int delivery = deliveryOf[i];
+            if( delivery >= 0 ) lineItemsOf[delivery][counts[delivery]++] = i;
+        }
+    }
+
+    /**
+     * Builds a view from the rows of the projection queries in ContractRespository. The header row is the contract id,
+     * name, currency, amount and closed at. Each delivery row is its id, date and location. Each line item row is its
+     * id, product id, sku, currency, unit price, quantity and the id of its delivery or null. A line item in a
+     * delivery that is not in the delivery rows means that the delivery was saved after they were read so the rows
+     * must be read again.
+     */
+    static ContractView of(Object[] header, List<Object[]> deliveries, List<Object[]> lineItems) {
+        final int deliveryCount = deliveries.size();
+        final long[] deliveryIds = new long[deliveryCount];
+        final long[] deliveryDates = new long[deliveryCount];
+        final String[] locations = new String[deliveryCount];
+        final Map<Long, Integer> positions = new HashMap<>();
+        for( int d = 0; d < deliveryCount; d++ ) {
+            final Object[] row = deliveries.get(d);
+            deliveryIds[d] = (Long) row[0];
+            deliveryDates[d] = row[1] == null ? NO_DATE : ((Date) row[1]).getTime();
+            locations[d] = (String) row[2];
+            positions.put(deliveryIds[d], d);
+        }
+
+        final int lineItemCount = lineItems.size();
+        final long[] lineItemIds = new long[lineItemCount];
+        final long[] productIds = new long[lineItemCount];
+        final String[] skus = new String[lineItemCount];
+        final Money[] unitPrices = new Money[lineItemCount];
+        final int[] quantities = new int[lineItemCount];
+        final int[] deliveryOf = new int[lineItemCount];
+        for( int i = 0; i < lineItemCount; i++ ) {
+            final Object[] row = lineItems.get(i);
+            lineItemIds[i] = (Long) row[0];
+            productIds[i] = (Long) row[1];
+            skus[i] = (String) row[2];
+            unitPrices[i] = new Money((String) row[3], (BigDecimal) row[4]);
+            quantities[i] = (Integer) row[5];
+            if( row[6] == null ) {
+                deliveryOf[i] = -1;
+            } else {
+                final Integer position = positions.get((Long) row[6]);
+                if( position == null ) {
+                    throw new ConcurrencyFailureException("line item " + lineItemIds[i] + " is in delivery " + row[6]
+                            + " which was saved after the deliveries were read");
+                }
+                deliveryOf[i] = position;
+            }
+        }
+
+        return new ContractView((Long) header[0], (String) header[1], new Money((String) header[2], (BigDecimal) header[3]),
+                (Date) header[4], false, deliveryIds, deliveryDates, locations,
+                lineItemIds, productIds, skus, unitPrices, quantities, deliveryOf);
+    }
+
+    long getContractId() {
+        return contractId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Money getTotalCost() {
+        return totalCost;
+    }
+
+    public Date getClosedAt() {
+        return closedAt == NO_DATE ? null : new Date(closedAt);
+    }
+
+    /**
+     * True if the view was built from a contract in the archive.
+     */
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public int deliveryCount() {
+        return deliveryIds.length;
+    }
+
+    public Date deliveryDate(int delivery) {
+        final long date = deliveryDates[delivery];
+        return date == NO_DATE ? null : new Date(date);
+    }
+
+    public String deliveryLocation(int delivery) {
+        return locations[delivery];
+    }
+
+    /**
+     * The positions of the line items in the delivery at the given position.
+     */
+    public int[] lineItemsOf(int delivery) {
+        return lineItemsOf[delivery].clone();
+    }
+
+    public int lineItemCount() {
+        return lineItemIds.length;
+    }
+
+    public String sku(int lineItem) {
+        return skus[lineItem];
+    }
+
+    public Money unitPrice(int lineItem) {
+        return unitPrices[lineItem];
+    }
+
+    public int quantity(int lineItem) {
+        return quantities[lineItem];
+    }
+
+    public Money cost(int lineItem) {
+        return unitPrices[lineItem].times(quantities[lineItem]);
+    }
+
+    /**
+     * The position of the delivery of the line item at the given position or -1 if it is not in a delivery.
+     */
+    public int deliveryOf(int lineItem) {
+        return deliveryOf[lineItem];
+    }
+
+    long deliveryId(int delivery) {
+        return deliveryIds[delivery];
+    }
+
+    long lineItemId(int lineItem) {
+        return lineItemIds[lineItem];
+    }
+
+    long productId(int lineItem) {
+        return productIds[lineItem];
+    }
+
+    @Override
+    public String toString() {
+        return "ContractView{" +
+                "name='" + name + '\'' +
+                ", totalCost=" + totalCost +
+                ", deliveries=" + Arrays.toString(locations) +
+                ", skus=" + Arrays.toString(skus) +
+                ", quantities=" + Arrays.toString(quantities) +
+                ", deliveryOf=" + Arrays.toString(deliveryOf) +
+                '}';
+    }
+}
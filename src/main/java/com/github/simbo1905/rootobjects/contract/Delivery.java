@@ -28,6 +28,14 @@ class Delivery {
         this.location = location;
     }
 
+    /**
+     * Rebuilds a delivery of an archived contract.
+     */
+    Delivery(Contract contract, Long deliveryId, Date date, String location){
+        this(contract, date, location);
+        this.deliveryId = deliveryId;
+    }
+
     @Transient
     List<LineItem> lineItems = new ArrayList<>();
 
@@ -47,6 +55,10 @@ class Delivery {
         return this.deliveryId;
     }
 
+    void copyIdFrom(Delivery saved) {
+        this.deliveryId = saved.deliveryId;
+    }
+
     @ManyToOne
     @JoinColumn(name="CONTRACT_ID", updatable = false)
     private Contract contract;
@@ -1,13 +1,30 @@
 package com.github.simbo1905.rootobjects.contract;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "DELIVERY_LINEITEM")
 class DeliveryLineItem {
 
+    /**
+     * Ids come from a sequence rather than an identity column as Hibernate cannot batch inserts into a table with an
+     * identity column. The pooled optimizer takes a block of ids per call to the sequence so that assigning many line
+     * items at once needs few round trips. The sequence is kept in a table rather than a database sequence as the
+     * Hibernate schema validator used by the durable profile cannot see database sequences.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GenericGenerator(name = "DELIVERY_LINEITEM_SEQ", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "DELIVERY_LINEITEM_SEQ"),
+                    @Parameter(name = "initial_value", value = "1"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled"),
+                    @Parameter(name = "force_table_use", value = "true")
+            })
+    @GeneratedValue(generator = "DELIVERY_LINEITEM_SEQ")
     @Column(name = "ID", nullable=false, updatable=false)
     private Long deliveryLineItemId;
 
@@ -35,6 +52,10 @@ class DeliveryLineItem {
         return deliveryLineItemId;
     }
 
+    void copyIdFrom(DeliveryLineItem saved) {
+        this.deliveryLineItemId = saved.deliveryLineItemId;
+    }
+
     public Contract getContract() {
         return contract;
     }
@@ -46,4 +67,11 @@ class DeliveryLineItem {
     public Delivery getDelivery() {
         return delivery;
     }
+
+    /**
+     * Only the contract moves a line item between deliveries.
+     */
+    void moveTo(Delivery delivery) {
+        this.delivery = delivery;
+    }
 }
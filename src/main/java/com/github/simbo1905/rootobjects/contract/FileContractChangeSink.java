@@ -0,0 +1,37 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends contract changes to a local file as one JSON object per line. Each batch is forced to disk before publish
+ * returns so that a change is never removed from the outbox before it is durable in the file.
+ */
+public class FileContractChangeSink implements ContractChangeSink {
+
+    private final Path file;
+
+    public FileContractChangeSink(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void publish(List<ContractChange> changes) throws Exception {
+        final StringBuilder lines = new StringBuilder();
+        changes.forEach(change -> lines.append("{\"sequence\":").append(change.getSequence())
+                .append(",\"createdAt\":").append(change.getCreatedAt().getTime())
+                .append(",\"change\":").append(change.getPayload()).append("}\n"));
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while( buffer.hasRemaining() ) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+}
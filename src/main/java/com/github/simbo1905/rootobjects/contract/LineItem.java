@@ -1,9 +1,11 @@
 package com.github.simbo1905.rootobjects.contract;
 
 import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.PriceBook;
 import com.github.simbo1905.rootobjects.product.Product;
 
 import javax.persistence.*;
+import java.util.Date;
 import java.util.Optional;
 
 @Entity
@@ -21,22 +23,53 @@ class LineItem {
     @Column(name = "QUANTITY")
     private Integer quantity;
 
+    /**
+     * The price of the product when the line item was created. The line item is costed at this price so that a later
+     * change to the price of the product does not change the cost of the line item or the total cost of its contract.
+     */
+    @Embedded
+    @AttributeOverrides({
+            @AttributeOverride(name = "currency", column = @Column(name = "UNIT_CURRENCY", length = 3)),
+            @AttributeOverride(name = "amount", column = @Column(name = "UNIT_AMOUNT"))})
+    private Money unitPrice;
+
     LineItem(){}
 
-    LineItem(Contract contract, Product product, Integer quantity) {
+    LineItem(Contract contract, Product product, Money unitPrice, Integer quantity) {
         this.contract = contract;
         this.product = product;
+        this.unitPrice = unitPrice;
         this.quantity = quantity;
     }
 
+    /**
+     * Rebuilds a line item of an archived contract.
+     */
+    LineItem(Contract contract, Long id, Product product, Money unitPrice, Integer quantity) {
+        this(contract, product, unitPrice, quantity);
+        this.id = id;
+    }
+
     Long lineItemId() {
         return id;
     }
 
+    void copyIdFrom(LineItem saved) {
+        this.id = saved.id;
+    }
+
     Product getProduct() {
         return product;
     }
 
+    Money getUnitPrice() {
+        return unitPrice;
+    }
+
+    Integer getQuantity() {
+        return quantity;
+    }
+
     LineItem addQuantity(int quantity) {
         this.quantity = this.quantity + quantity;
         return this;
@@ -54,7 +87,16 @@ class LineItem {
     Optional<Delivery> delivery = Optional.empty();
 
     public Money cost() {
-        return this.getProduct().getPrice().times(quantity);
+        return unitPrice.times(quantity);
+    }
+
+    /**
+     * The cost at the price of the product that was in effect when the contract was created. A contract saved before
+     * its creation time was recorded, or a product with no price recorded at that time, is costed at the unit price.
+     */
+    public Money cost(PriceBook prices) {
+        final Date createdAt = contract.getCreatedAt();
+        return createdAt == null ? cost() : prices.priceAt(getProduct(), createdAt).orElse(unitPrice).times(quantity);
     }
 
     /**
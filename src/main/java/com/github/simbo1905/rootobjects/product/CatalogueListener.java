@@ -0,0 +1,11 @@
+package com.github.simbo1905.rootobjects.product;
+
+import java.util.Collection;
+
+/**
+ * Told about products whose description or price was changed in the catalogue so that copies of them that are kept
+ * elsewhere can be brought into line. It is called after the change has committed.
+ */
+public interface CatalogueListener {
+    void productsChanged(Collection<Long> productIds);
+}
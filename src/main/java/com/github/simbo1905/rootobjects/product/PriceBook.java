@@ -0,0 +1,14 @@
+package com.github.simbo1905.rootobjects.product;
+
+import com.github.simbo1905.rootobjects.Money;
+
+import java.util.Date;
+import java.util.Optional;
+
+/**
+ * Looks up the price of a product that was in effect at a given time. It is empty when no price of the product was
+ * recorded at or before that time.
+ */
+public interface PriceBook {
+    Optional<Money> priceAt(Product product, Date when);
+}
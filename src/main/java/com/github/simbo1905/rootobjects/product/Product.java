@@ -1,15 +1,30 @@
 package com.github.simbo1905.rootobjects.product;
 
 import com.github.simbo1905.rootobjects.Money;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.*;
 import java.math.BigDecimal;
+import java.util.Objects;
 
 @Entity
 @Table(name = "PRODUCT")
 public class Product {
+    /**
+     * Ids come from a pooled sequence rather than an identity column so that the inserts of a catalogue upsert can be
+     * batched. The sequence is kept in a table so that the schema validator of the durable profile can see it.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GenericGenerator(name = "PRODUCT_SEQ", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "PRODUCT_SEQ"),
+                    @Parameter(name = "initial_value", value = "1"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled"),
+                    @Parameter(name = "force_table_use", value = "true")
+            })
+    @GeneratedValue(generator = "PRODUCT_SEQ")
     @Column(name = "PRODUCT_ID", nullable=false, updatable=false)
     private Long id;
 
@@ -45,4 +60,23 @@ public class Product {
     public String getDescription() {
         return description;
     }
+
+    /**
+     * Updates the product from a catalogue feed. This isn't public as the ProductService must record a change of
+     * price in the price history. Returns true if anything changed.
+     */
+    boolean update(String description, Money price) {
+        final boolean changed = !Objects.equals(this.description, description) || !samePrice(price);
+        this.description = description;
+        this.price = price;
+        return changed;
+    }
+
+    /**
+     * Compares amounts ignoring their scale so that a feed that gives 5 for 5.00 is not a change of price.
+     */
+    boolean samePrice(Money price) {
+        return this.price.getCurrency().equals(price.getCurrency())
+                && this.price.getAmount().compareTo(price.getAmount()) == 0;
+    }
 }
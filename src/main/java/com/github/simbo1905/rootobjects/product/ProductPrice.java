@@ -0,0 +1,59 @@
+package com.github.simbo1905.rootobjects.product;
+
+import com.github.simbo1905.rootobjects.Money;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * The price of a product from a point in time. A row is written when a product is created and each time its price
+ * changes so that the price in effect at any time can be looked up. Rows are never updated.
+ */
+@Entity
+@Table(name = "PRODUCT_PRICE", indexes = @Index(name = "IDX_PRODUCT_PRICE_EFFECTIVE", columnList = "PRODUCT_ID,EFFECTIVE_FROM"))
+class ProductPrice {
+    /**
+     * Ids come from a pooled sequence kept in a table, as for Product, so that price rows are inserted in batches and
+     * the schema validator of the durable profile can see the sequence.
+     */
+    @Id
+    @GenericGenerator(name = "PRODUCT_PRICE_SEQ", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "PRODUCT_PRICE_SEQ"),
+                    @Parameter(name = "initial_value", value = "1"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled"),
+                    @Parameter(name = "force_table_use", value = "true")
+            })
+    @GeneratedValue(generator = "PRODUCT_PRICE_SEQ")
+    @Column(name = "ID", nullable=false, updatable=false)
+    private Long id;
+
+    @ManyToOne
+    @JoinColumn(name = "PRODUCT_ID", updatable = false)
+    private Product product;
+
+    @Column(name = "EFFECTIVE_FROM", updatable = false)
+    private Date effectiveFrom;
+
+    @Embedded
+    private Money price;
+
+    ProductPrice(){}
+
+    ProductPrice(Product product, Date effectiveFrom, Money price) {
+        this.product = product;
+        this.effectiveFrom = effectiveFrom;
+        this.price = price;
+    }
+
+    Date getEffectiveFrom() {
+        return effectiveFrom;
+    }
+
+    Money getPrice() {
+        return price;
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.simbo1905.rootobjects.product;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This is not a public class deliberately as only the ProductService records prices.
+ */
+interface ProductPriceRespository extends JpaRepository<ProductPrice, Long> {
+    @Query("select pp from ProductPrice pp where pp.product = ?1 and pp.effectiveFrom <= ?2 " +
+            "order by pp.effectiveFrom desc, pp.id desc")
+    List<ProductPrice> findEffectiveAt(Product product, Date when, Pageable page);
+}
@@ -3,10 +3,16 @@ package com.github.simbo1905.rootobjects.product;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * This is not a public class deliberately as we want a service class to save things in the correct order in a transaction.
  */
 interface ProductRespository extends JpaRepository<Product, Long> {
     @Query("select p from Product p where p.sku = ?1")
     Product findBySku(String name);
+
+    @Query("select p from Product p where p.sku in ?1")
+    List<Product> findBySkuIn(Collection<String> skus);
 }
@@ -1,20 +1,139 @@
 package com.github.simbo1905.rootobjects.product;
 
+import com.github.simbo1905.rootobjects.Money;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
+import java.util.*;
 
 @Named("productService")
-public class ProductService {
+public class ProductService implements PriceBook {
     @Inject ProductRespository productRepository;
 
+    @Inject ProductPriceRespository productPriceRespository;
+
+    @Inject PlatformTransactionManager transactionManager;
+
+    @PersistenceContext EntityManager entityManager;
+
+    /**
+     * When configured it is told about the products that each upsert chunk updated once the chunk has committed.
+     */
+    @Inject Optional<CatalogueListener> catalogueListener;
+
+    private int upsertChunkSize = 500;
+
+    /**
+     * The number of feed rows that are looked up with one query and written in one transaction.
+     */
+    public void setUpsertChunkSize(int upsertChunkSize) {
+        this.upsertChunkSize = upsertChunkSize;
+    }
+
+    /**
+     * Saves the product. The price of a new product is recorded in the price history as in effect from now.
+     */
     @Transactional
     public void save(Product product) {
-        productRepository.save(product);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            final boolean created = product.getId() == null;
+            productRepository.save(product);
+            if( created ) {
+                productPriceRespository.save(new ProductPrice(product, new Date(), product.getPrice()));
+            }
+            return null;
+        });
     }
 
     @Transactional
     public Product findBySku(String name) {
         return productRepository.findBySku(name);
     }
+
+    /**
+     * Inserts or updates the products of a catalogue feed matching them on their SKU. The feed is processed in chunks
+     * that each take one query to find the existing products and one transaction to write the changes which the JDBC
+     * driver is sent in batches. A new product or a change of price is recorded in the price history as in effect
+     * from the given time. When a SKU appears more than once the last row wins. The feed products are only read so
+     * they are not saved themselves. Each chunk requires a new transaction so when the caller has a transaction it is
+     * suspended and each chunk commits on its own. The chunk has its own persistence context which is cleared after
+     * the chunk so the entities of the caller are left managed, but a chunk does not see what the caller has not yet
+     * committed. The catalogue listener, if any, is told about the products that a chunk updated after it commits.
+     */
+    public UpsertReport upsertAll(Collection<Product> feed, Date effectiveFrom) {
+        final long started = System.nanoTime();
+        final long[] counts = new long[4];
+        final List<Product> rows = new ArrayList<>(feed);
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for( int from = 0; from < rows.size(); from += upsertChunkSize ) {
+            final List<Product> chunk = rows.subList(from, Math.min(rows.size(), from + upsertChunkSize));
+            final List<Long> updated = transactionTemplate.execute(status -> upsertChunk(chunk, effectiveFrom, counts));
+            if( !updated.isEmpty() ) {
+                catalogueListener.ifPresent(listener -> listener.productsChanged(updated));
+            }
+        }
+        return new UpsertReport(rows.size(), counts[INSERTED], counts[UPDATED], counts[UNCHANGED],
+                counts[PRICES_RECORDED], (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private static final int INSERTED = 0;
+    private static final int UPDATED = 1;
+    private static final int UNCHANGED = 2;
+    private static final int PRICES_RECORDED = 3;
+
+    /**
+     * Returns the ids of the existing products that were updated.
+     */
+    private List<Long> upsertChunk(List<Product> chunk, Date effectiveFrom, long[] counts) {
+        final Set<Long> updated = new LinkedHashSet<>();
+        final Set<String> skus = new HashSet<>();
+        chunk.forEach(row -> skus.add(row.getSku()));
+        final Map<String, Product> products = new HashMap<>();
+        productRepository.findBySkuIn(skus).forEach(p -> products.put(p.getSku(), p));
+        for( Product row : chunk ) {
+            final Product product = products.get(row.getSku());
+            if( product == null ) {
+                final Product created = new Product(row.getSku(), row.getDescription(), row.getPrice());
+                entityManager.persist(created);
+                entityManager.persist(new ProductPrice(created, effectiveFrom, created.getPrice()));
+                products.put(created.getSku(), created);
+                counts[INSERTED]++;
+                counts[PRICES_RECORDED]++;
+            } else {
+                final boolean priceChanged = !product.samePrice(row.getPrice());
+                if( product.update(row.getDescription(), row.getPrice()) ) {
+                    counts[UPDATED]++;
+                    updated.add(product.getId());
+                    if( priceChanged ) {
+                        entityManager.persist(new ProductPrice(product, effectiveFrom, row.getPrice()));
+                        counts[PRICES_RECORDED]++;
+                    }
+                } else {
+                    counts[UNCHANGED]++;
+                }
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return new ArrayList<>(updated);
+    }
+
+    /**
+     * The price in the price history that was in effect at the given time. It is empty when the time is before the
+     * first recorded price such as for a product that was saved before price history was recorded.
+     */
+    @Override
+    @Transactional
+    public Optional<Money> priceAt(Product product, Date when) {
+        final List<ProductPrice> prices = productPriceRespository.findEffectiveAt(product, when, new PageRequest(0, 1));
+        return prices.isEmpty() ? Optional.empty() : Optional.of(prices.get(0).getPrice());
+    }
 }
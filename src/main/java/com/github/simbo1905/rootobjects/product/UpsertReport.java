@@ -0,0 +1,66 @@
+package com.github.simbo1905.rootobjects.product;
+
+/**
+ * What a catalogue upsert changed and how long it took.
+ */
+public final class UpsertReport {
+    private final long rows;
+    private final long inserted;
+    private final long updated;
+    private final long unchanged;
+    private final long pricesRecorded;
+    private final long elapsedMillis;
+
+    UpsertReport(long rows, long inserted, long updated, long unchanged, long pricesRecorded, long elapsedMillis) {
+        this.rows = rows;
+        this.inserted = inserted;
+        this.updated = updated;
+        this.unchanged = unchanged;
+        this.pricesRecorded = pricesRecorded;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * The rows added to the price history which is one per inserted product and one per change of price.
+     */
+    public long getPricesRecorded() {
+        return pricesRecorded;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getRowsPerSecond() {
+        return rows * 1000 / Math.max(1, elapsedMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "UpsertReport{" +
+                "rows=" + rows +
+                ", inserted=" + inserted +
+                ", updated=" + updated +
+                ", unchanged=" + unchanged +
+                ", pricesRecorded=" + pricesRecorded +
+                ", elapsedMillis=" + elapsedMillis +
+                ", rowsPerSecond=" + getRowsPerSecond() +
+                '}';
+    }
+}
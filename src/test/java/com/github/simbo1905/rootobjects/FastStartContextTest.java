@@ -0,0 +1,131 @@
+package com.github.simbo1905.rootobjects;
+
+import com.github.simbo1905.rootobjects.contract.Contract;
+import com.github.simbo1905.rootobjects.contract.ContractSavePipeline;
+import com.github.simbo1905.rootobjects.contract.ContractService;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.inject.Named;
+import javax.persistence.Entity;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * The fast start context does not create the schema so it is started against a database that the standard contexts
+ * created and saved a product and a contract into. The jdbc.url system property points the fast start context at it.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:fastStartContext.xml"})
+@Transactional
+public class FastStartContextTest {
+
+    static final String[] STANDARD = {"classpath:dataSourceContext.xml", "classpath:application-context.xml"};
+
+    static final Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    private static String jdbcUrl;
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        jdbcUrl = System.getProperty("jdbc.url");
+        try (GenericXmlApplicationContext standard = new GenericXmlApplicationContext(STANDARD)) {
+            final Product product = new Product("FS00", "Light Tank", FIVE_MILLION_USD);
+            standard.getBean(ProductService.class).save(product);
+            final ContractService contractService = standard.getBean(ContractService.class);
+            try (ContractSavePipeline pipeline = new ContractSavePipeline(contractService, 1, 1)) {
+                pipeline.submit("Fast Start Existing", contract -> contract.createLineItem(product, 2)).get();
+            }
+            System.setProperty("jdbc.url", standard.getBean(BasicDataSource.class).getUrl());
+        }
+    }
+
+    @AfterClass
+    public static void restoreJdbcUrl() {
+        if( jdbcUrl == null ) {
+            System.clearProperty("jdbc.url");
+        } else {
+            System.setProperty("jdbc.url", jdbcUrl);
+        }
+    }
+
+    @Autowired
+    protected ApplicationContext context;
+
+    @Autowired
+    protected EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    private static Set<String> scan(Class<? extends java.lang.annotation.Annotation> annotation) {
+        final ClassPathScanningCandidateComponentProvider scanner =
+                new ClassPathScanningCandidateComponentProvider(false);
+        scanner.addIncludeFilter(new AnnotationTypeFilter(annotation));
+        return scanner.findCandidateComponents("com.github.simbo1905.rootobjects").stream()
+                .map(BeanDefinition::getBeanClassName).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Test that the services work when started from the fast start context.
+     */
+    @Test
+    public void testServicesWork() throws Exception {
+        productService.save(new Product("FS01", "Heavy Tank", FIVE_MILLION_USD));
+        Assert.assertEquals("Heavy Tank", productService.findBySku("FS01").getDescription());
+        Assert.assertNull(contractService.loadByName("Fast Start Contract"));
+    }
+
+    /**
+     * Test that the fast start leaves the schema and the data already in the database alone.
+     */
+    @Test
+    public void testExistingDataSurvives() throws Exception {
+        Assert.assertEquals("Light Tank", productService.findBySku("FS00").getDescription());
+        final Contract contract = contractService.loadByName("Fast Start Existing");
+        Assert.assertEquals(1, contract.getLineItems().size());
+        Assert.assertEquals(FIVE_MILLION_USD.times(2), contract.getTotalCost());
+    }
+
+    /**
+     * Test that every entity that scanning would find is listed in the fast start persistence unit.
+     */
+    @Test
+    public void testEveryEntityIsListed() throws Exception {
+        final Set<String> mapped = entityManagerFactory.getMetamodel().getEntities().stream()
+                .map(EntityType::getJavaType).map(Class::getName).collect(Collectors.toCollection(TreeSet::new));
+        Assert.assertEquals(scan(Entity.class), mapped);
+    }
+
+    /**
+     * Test that every service that scanning would find is declared in the fast start context.
+     */
+    @Test
+    public void testEveryServiceIsDeclared() throws Exception {
+        for( String service : scan(Named.class) ) {
+            Assert.assertEquals(service, 1, context.getBeanNamesForType(Class.forName(service)).length);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.simbo1905.rootobjects;
+
+import com.github.simbo1905.rootobjects.contract.ContractService;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.Test;
+import org.springframework.context.support.GenericXmlApplicationContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Breaks down the time to start the application and serve the first call by phase for the standard contexts and for
+ * the fast start context. Each is started twice in turn as the first start in the JVM also pays for class loading.
+ * The fast start context does not create the schema so it is started against the database of the last standard
+ * context, which the jdbc.url system property points it at. Run it with "mvn -Pbenchmark test".
+ */
+public class FastStartupBenchmark {
+
+    static final String[] STANDARD = {"classpath:dataSourceContext.xml", "classpath:application-context.xml"};
+    static final String[] FAST_START = {"classpath:fastStartContext.xml"};
+
+    @Test
+    public void benchmark() throws Exception {
+        final String jdbcUrl = System.getProperty("jdbc.url");
+        try {
+            for( int run = 1; run <= 2; run++ ) {
+                report("standard   #" + run, startup(STANDARD));
+                report("fast start #" + run, startup(FAST_START));
+            }
+        } finally {
+            if( jdbcUrl == null ) {
+                System.clearProperty("jdbc.url");
+            } else {
+                System.setProperty("jdbc.url", jdbcUrl);
+            }
+        }
+    }
+
+    private static Map<String, Long> startup(String[] locations) {
+        final Map<String, Long> phases = new LinkedHashMap<>();
+        long started = System.nanoTime();
+        try (GenericXmlApplicationContext context = new GenericXmlApplicationContext()) {
+            context.load(locations);
+            started = phase(phases, "definitions", started);
+
+            context.refresh();
+            started = phase(phases, "refresh", started);
+
+            // blocks until a background bootstrap is complete
+            context.getBean(EntityManagerFactory.class).getMetamodel();
+            started = phase(phases, "emf wait", started);
+
+            final ContractService contractService = context.getBean(ContractService.class);
+            final ProductService productService = context.getBean(ProductService.class);
+            started = phase(phases, "services", started);
+
+            productService.findBySku("none");
+            contractService.loadByName("none");
+            phase(phases, "first call", started);
+
+            if( locations == STANDARD ) {
+                System.setProperty("jdbc.url", context.getBean(BasicDataSource.class).getUrl());
+            }
+        }
+        return phases;
+    }
+
+    private static long phase(Map<String, Long> phases, String name, long started) {
+        final long now = System.nanoTime();
+        phases.put(name, now - started);
+        return now;
+    }
+
+    private static void report(String label, Map<String, Long> phases) {
+        final StringBuilder line = new StringBuilder(label);
+        long total = 0;
+        for( Map.Entry<String, Long> phase : phases.entrySet() ) {
+            line.append(String.format(" | %s %5d ms", phase.getKey(), phase.getValue() / 1_000_000));
+            total += phase.getValue();
+        }
+        line.append(String.format(" | total %5d ms", total / 1_000_000));
+        System.out.println(line);
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.Date;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+@Transactional
+public class CompactContractTest {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected EntityManager entityManager;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    static Money ONE_MILLION_USD = new Money("USD", new BigDecimal("1000000.00"));
+
+    private Contract reload(String name) {
+        entityManager.flush();
+        entityManager.clear();
+        return contractService.loadByName(name);
+    }
+
+    /**
+     * Test that a compact contract saves as the same contract that the entities would have saved.
+     */
+    @Test
+    public void testSaveNewCompactContract() throws Exception {
+        final Product tank = new Product("CC-T1", "Heavy Tank", FIVE_MILLION_USD);
+        final Product jeep = new Product("CC-J1", "Jeep", ONE_MILLION_USD);
+        productService.save(tank);
+        productService.save(jeep);
+
+        final CompactContract compact = new CompactContract("Compact Contract");
+        final int london = compact.createDelivery(new Date(1000L), "London");
+        final int paris = compact.createDelivery(new Date(2000L), "Paris");
+        compact.assignToDelivery(compact.createLineItem(tank, 1), london);
+        compact.assignToDelivery(compact.createLineItem(jeep, 2), paris);
+        compact.createLineItem(jeep, 3);
+        Assert.assertEquals(0, new BigDecimal("10000000.00").compareTo(compact.getTotalCost().getAmount()));
+
+        final CompactContract saved = contractService.save(compact);
+        Assert.assertNotNull(saved.getContractId());
+        Assert.assertNotNull(saved.getCreatedAt());
+
+        final Contract loaded = reload("Compact Contract");
+        Assert.assertEquals(2, loaded.getDeliveries().size());
+        Assert.assertEquals(3, loaded.getLineItems().size());
+        Assert.assertEquals(2, loaded.getDeliveryLineItems().size());
+        Assert.assertEquals("London", loaded.getLineItems().get(0).delivery.get().getLocation());
+        Assert.assertEquals("Paris", loaded.getLineItems().get(1).delivery.get().getLocation());
+        Assert.assertFalse(loaded.getLineItems().get(2).delivery.isPresent());
+        Assert.assertEquals(0, new BigDecimal("10000000.00").compareTo(loaded.getTotalCost().getAmount()));
+    }
+
+    /**
+     * Test that edits to a compact copy of a saved contract are applied to the contract when it is saved.
+     */
+    @Test
+    public void testEditAndSaveAgain() throws Exception {
+        final Product tank = new Product("CC-T2", "Heavy Tank", FIVE_MILLION_USD);
+        final Product jeep = new Product("CC-J2", "Jeep", ONE_MILLION_USD);
+        productService.save(tank);
+        productService.save(jeep);
+        final CompactContract compact = new CompactContract("Edited Compact Contract");
+        final int london = compact.createDelivery(new Date(1000L), "London");
+        compact.createDelivery(new Date(2000L), "Paris");
+        compact.assignToDelivery(compact.createLineItem(tank, 1), london);
+        compact.assignToDelivery(compact.createLineItem(jeep, 2), london);
+        compact.createLineItem(jeep, 3);
+        contractService.save(compact);
+        entityManager.flush();
+        entityManager.clear();
+
+        final CompactContract edited = CompactContract.of(contractService.loadByName("Edited Compact Contract"));
+        Assert.assertEquals(3, edited.lineItemCount());
+        Assert.assertEquals(0, edited.deliveryOf(1));
+        // drop London so its line items are no longer in a delivery then put the jeeps in Paris
+        edited.deleteDelivery(0);
+        Assert.assertEquals(-1, edited.deliveryOf(0));
+        Assert.assertEquals("Paris", edited.deliveryLocation(0));
+        edited.assignToDelivery(1, 0);
+        edited.assignToDelivery(2, 0);
+        edited.updateQuantity(2, 4);
+        edited.deleteLineItem(0);
+        edited.assignToDelivery(edited.createLineItem(tank, 1), edited.createDelivery(new Date(3000L), "Berlin"));
+        contractService.save(edited);
+
+        final Contract loaded = reload("Edited Compact Contract");
+        Assert.assertEquals(2, loaded.getDeliveries().size());
+        Assert.assertEquals(3, loaded.getLineItems().size());
+        Assert.assertEquals(3, loaded.getDeliveryLineItems().size());
+        Assert.assertEquals("Paris", loaded.getLineItems().get(0).delivery.get().getLocation());
+        Assert.assertEquals(4, loaded.getLineItems().get(1).getQuantity().intValue());
+        Assert.assertEquals("Berlin", loaded.getLineItems().get(2).delivery.get().getLocation());
+        Assert.assertEquals(0, new BigDecimal("11000000.00").compareTo(loaded.getTotalCost().getAmount()));
+    }
+
+    /**
+     * Test that a new compact contract cannot overwrite a contract of the same name.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testNewCompactContractMustBeNew() throws Exception {
+        contractService.save(new CompactContract("Duplicate Compact Contract"));
+        contractService.save(new CompactContract("Duplicate Compact Contract"));
+    }
+}
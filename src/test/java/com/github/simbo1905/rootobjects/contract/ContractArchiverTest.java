@@ -0,0 +1,229 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.stream.Collectors;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+@Transactional
+public class ContractArchiverTest {
+
+    @Autowired
+    protected DataSource dataSource;
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected ContractArchiver archiver;
+
+    @Autowired
+    protected EntityManager entityManager;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    static Date LONG_AGO = new Date(978307200000L); // 2001-01-01
+
+    static Date CUT_OFF = new Date(1262304000000L); // 2010-01-01
+
+    /**
+     * Saves a contract with two deliveries and three line items of which the first two are in the deliveries.
+     */
+    private Contract saveContract(String name, Date closedAt) {
+        final Product product = new Product("AR-" + name, "Heavy Tank", FIVE_MILLION_USD);
+        productService.save(product);
+        final Contract contract = new Contract(name);
+        final Delivery london = contract.createDelivery(new Date(), "London");
+        final Delivery paris = contract.createDelivery(new Date(), "Paris");
+        contract.addLineItemToDelivery(contract.createLineItem(product, 1), london);
+        contract.addLineItemToDelivery(contract.createLineItem(product, 2), paris);
+        contract.createLineItem(product, 3);
+        if( closedAt != null ) contract.close(closedAt);
+        contractService.save(contract);
+        entityManager.flush();
+        entityManager.clear();
+        return contract;
+    }
+
+    private int count(String sql, Object arg) {
+        return new JdbcTemplate(dataSource).queryForObject(sql, Integer.class, arg);
+    }
+
+    /**
+     * Test that an old closed contract is moved out of the hot tables and is restored when it is loaded by name.
+     */
+    @Test
+    public void testClosedContractIsArchivedAndRestored() throws Exception {
+        final Contract contract = saveContract("Archived Contract", LONG_AGO);
+        final Long contractId = contract.getContractId();
+
+        Assert.assertEquals(1, archiver.archiveAll(CUT_OFF, 10));
+
+        Assert.assertEquals(0, count("select count(*) from CONTRACT where CONTRACT_ID = ?", contractId));
+        Assert.assertEquals(0, count("select count(*) from LINEITEM where CONTRACT_ID = ?", contractId));
+        Assert.assertEquals(0, count("select count(*) from DELIVERY where CONTRACT_ID = ?", contractId));
+        Assert.assertEquals(0, count("select count(*) from DELIVERY_LINEITEM where CONTRACT_ID = ?", contractId));
+        Assert.assertEquals(1, count("select count(*) from CONTRACT_ARCHIVE where CONTRACT_ID = ?", contractId));
+
+        final Contract restored = contractService.loadByName("Archived Contract");
+        Assert.assertTrue(restored.isArchived());
+        Assert.assertEquals(contractId, restored.getContractId());
+        Assert.assertEquals(LONG_AGO, restored.getClosedAt());
+        Assert.assertEquals(new BigDecimal("30000000.00"), restored.getTotalCost().getAmount());
+        Assert.assertEquals("London,Paris",
+                restored.getDeliveries().stream().map(Delivery::getLocation).collect(Collectors.joining(",")));
+        Assert.assertEquals(3, restored.getLineItems().size());
+        Assert.assertEquals("AR-Archived Contract", restored.getLineItems().get(0).getProduct().getSku());
+        Assert.assertSame(restored.getDeliveries().get(0), restored.getLineItems().get(0).delivery.get());
+        Assert.assertSame(restored.getDeliveries().get(1), restored.getLineItems().get(1).delivery.get());
+        Assert.assertFalse(restored.getLineItems().get(2).delivery.isPresent());
+        Assert.assertEquals(2, restored.getDeliveries().get(1).getLineItems().get(0).getQuantity().intValue());
+    }
+
+    /**
+     * Test that a contract created with the name of an archived contract is left in the hot tables when it is closed
+     * and that the archive does not take a second contract with the same name.
+     */
+    @Test
+    public void testReusedNameIsNotArchivedTwice() throws Exception {
+        final Contract first = saveContract("Reused Name Contract", LONG_AGO);
+        Assert.assertEquals(1, archiver.archiveAll(CUT_OFF, 10));
+
+        final Contract second = new Contract("Reused Name Contract");
+        second.createLineItem(productService.findBySku("AR-Reused Name Contract"), 5);
+        second.close(LONG_AGO);
+        contractService.save(second);
+        entityManager.flush();
+        entityManager.clear();
+        Assert.assertEquals(0, archiver.archiveAll(CUT_OFF, 10));
+
+        Assert.assertEquals(1, count("select count(*) from CONTRACT_ARCHIVE where NAME = ?", "Reused Name Contract"));
+        final Contract loaded = contractService.loadByName("Reused Name Contract");
+        Assert.assertFalse(loaded.isArchived());
+        Assert.assertEquals(second.getContractId(), loaded.getContractId());
+        try {
+            new JdbcTemplate(dataSource).update("insert into CONTRACT_ARCHIVE (ID, CONTRACT_ID, NAME) values (?, ?, ?)",
+                    Integer.MAX_VALUE, second.getContractId(), "Reused Name Contract");
+            Assert.fail();
+        } catch (DuplicateKeyException e) {
+            // expected
+        }
+        Assert.assertNotEquals(first.getContractId(), second.getContractId());
+    }
+
+    /**
+     * Test that a contract restored from the archive can be neither changed nor saved.
+     */
+    @Test
+    public void testRestoredContractIsReadOnly() throws Exception {
+        saveContract("Read Only Contract", LONG_AGO);
+        archiver.archiveAll(CUT_OFF, 10);
+        final Contract restored = contractService.loadByName("Read Only Contract");
+
+        try {
+            restored.createDelivery(new Date(), "Berlin");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            contractService.save(restored);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that open contracts and contracts closed after the cut off stay in the hot tables.
+     */
+    @Test
+    public void testOnlyContractsClosedBeforeTheCutOffAreArchived() throws Exception {
+        saveContract("Open Contract", null);
+        saveContract("Recently Closed Contract", new Date());
+
+        Assert.assertEquals(0, archiver.archiveAll(CUT_OFF, 10));
+        Assert.assertFalse(contractService.loadByName("Open Contract").isArchived());
+        Assert.assertFalse(contractService.loadByName("Recently Closed Contract").isArchived());
+    }
+
+    /**
+     * Test that contracts are archived in batches of at most the batch size.
+     */
+    @Test
+    public void testContractsAreArchivedInBatches() throws Exception {
+        for( int i = 0; i < 5; i++ ) {
+            saveContract("Batched Contract " + i, LONG_AGO);
+        }
+        Assert.assertEquals(2, archiver.archiveBatch(CUT_OFF, 2));
+        Assert.assertEquals(3, archiver.archiveAll(CUT_OFF, 2));
+        for( int i = 0; i < 5; i++ ) {
+            Assert.assertTrue(contractService.loadByName("Batched Contract " + i).isArchived());
+        }
+    }
+
+    /**
+     * Test that a closed contract cannot be changed or closed again.
+     */
+    @Test
+    public void testClosedContractCannotBeChanged() throws Exception {
+        saveContract("Closed Contract", new Date());
+        final Contract closed = contractService.loadByName("Closed Contract");
+        try {
+            closed.createLineItem(closed.getLineItems().get(0).getProduct(), 1);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            closed.close(new Date());
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(3, closed.getLineItems().size());
+    }
+
+    /**
+     * Test that a batch is read with a query per collection rather than loading the collections contract by contract.
+     */
+    @Test
+    public void testBatchIsReadWithoutLoadingPerContract() throws Exception {
+        for( int i = 0; i < 5; i++ ) {
+            saveContract("Fetched Contract " + i, LONG_AGO);
+        }
+        final Statistics statistics = entityManager.unwrap(Session.class).getSessionFactory().getStatistics();
+        final boolean enabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+            Assert.assertEquals(5, archiver.archiveBatch(CUT_OFF, 10));
+            Assert.assertEquals(0, statistics.getCollectionFetchCount());
+            Assert.assertEquals(0, statistics.getEntityFetchCount());
+        } finally {
+            statistics.setStatisticsEnabled(enabled);
+        }
+        Assert.assertEquals("London", contractService.loadByName("Fetched Contract 4").getDeliveries().get(0).getLocation());
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Measures the heap used per line item by a large contract held as entities and as a compact contract. The contracts
+ * are built in memory as a loaded contract would also reference the persistence context. The changes that the contract
+ * tracks for the outbox are cleared before it is measured, as a save clears them, and the tables that the cleared
+ * collections keep are not counted so that only the aggregate is.
+ */
+public class ContractFootprintTest {
+
+    private static final Log LOG = LogFactory.getLog(ContractFootprintTest.class);
+
+    static final int LINE_ITEMS = 100_000;
+
+    static final int DELIVERIES = 100;
+
+    static final int PRODUCTS = 50;
+
+    /**
+     * A bound on the objects a compact contract may hold for each delivery and each distinct product, and for the
+     * contract itself and its arrays. A form with even one object per line item would be far over it.
+     */
+    static final int OBJECTS_PER_DELIVERY = 10;
+    static final int OBJECTS_PER_PRODUCT = 10;
+    static final int OBJECTS_PER_CONTRACT = 100;
+
+    /**
+     * Test that a compact contract holds no objects per line item, only a bounded number per delivery and per distinct
+     * product, and that it takes no more than its arrays, which are 20 bytes per line item and may be up to twice the
+     * size needed as they grow by doubling. It reports the bytes per line item of the same contract held as entities
+     * before it is compacted and as a compact contract after.
+     */
+    @Test
+    public void testBytesPerLineItem() throws Exception {
+        final Product[] products = new Product[PRODUCTS];
+        for( int p = 0; p < PRODUCTS; p++ ) {
+            products[p] = new Product("FP-" + p, "Product " + p, new Money("USD", new BigDecimal("10.00")));
+        }
+
+        final Contract contract = new Contract("Footprint");
+        final Delivery[] deliveries = new Delivery[DELIVERIES];
+        for( int d = 0; d < DELIVERIES; d++ ) {
+            deliveries[d] = contract.createDelivery(new Date(d), "Depot " + d);
+        }
+        final CompactContract compact = new CompactContract("Footprint");
+        for( int d = 0; d < DELIVERIES; d++ ) {
+            compact.createDelivery(new Date(d), "Depot " + d);
+        }
+        for( int l = 0; l < LINE_ITEMS; l++ ) {
+            contract.addLineItemToDelivery(contract.createLineItem(products[l % PRODUCTS], l % 1000),
+                    deliveries[l % DELIVERIES]);
+            compact.assignToDelivery(compact.createLineItem(products[l % PRODUCTS], l % 1000), l % DELIVERIES);
+        }
+        contract.changes.clear();
+        // the products belong to the catalogue rather than to either contract
+        final GraphLayout catalogue = GraphLayout.parseInstance((Object[]) products);
+        final GraphLayout changes = GraphLayout.parseInstance(contract.changes);
+        final GraphLayout entities = GraphLayout.parseInstance(contract);
+        final GraphLayout compacted = GraphLayout.parseInstance(compact);
+        final long entityBytes = entities.totalSize() - changes.totalSize() - catalogue.totalSize();
+        final long entityObjects = entities.totalCount() - changes.totalCount() - catalogue.totalCount();
+        final long compactBytes = compacted.totalSize() - catalogue.totalSize();
+        final long compactObjects = compacted.totalCount() - catalogue.totalCount();
+
+        LOG.info(String.format("bytes per line item: entities %d compact %d, objects: entities %d compact %d",
+                entityBytes / LINE_ITEMS, compactBytes / LINE_ITEMS, entityObjects, compactObjects));
+        Assert.assertTrue(compactObjects <= OBJECTS_PER_CONTRACT + OBJECTS_PER_DELIVERY * DELIVERIES
+                + OBJECTS_PER_PRODUCT * PRODUCTS);
+        Assert.assertTrue(compactBytes / LINE_ITEMS <= 40);
+    }
+}
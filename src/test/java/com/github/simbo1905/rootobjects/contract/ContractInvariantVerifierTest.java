@@ -0,0 +1,172 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+@Transactional
+public class ContractInvariantVerifierTest {
+
+    @Autowired
+    protected DataSource dataSource;
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected ContractInvariantVerifier verifier;
+
+    @Autowired
+    protected EntityManager entityManager;
+
+    @Autowired
+    protected PlatformTransactionManager transactionManager;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    static Money usd(String amount) {
+        return new Money("USD", new BigDecimal(amount));
+    }
+
+    private Contract contractWithDeliveredLineItems(String name, int count) {
+        final Product product = new Product("IV-" + name, "Heavy Tank", FIVE_MILLION_USD);
+        productService.save(product);
+        final Contract contract = new Contract(name);
+        final Delivery delivery = contract.createDelivery(new Date(), "London");
+        for( int i = 0; i < count; i++ ) {
+            contract.addLineItemToDelivery(contract.createLineItem(product, i + 1), delivery);
+        }
+        contractService.save(contract);
+        entityManager.flush();
+        entityManager.clear();
+        return contract;
+    }
+
+    private List<ContractInvariantVerifier.Violation> violationsOf(Contract contract) {
+        final List<ContractInvariantVerifier.Violation> violations = new ArrayList<>();
+        verifier.setChunkSize(2);
+        verifier.setParallelism(2);
+        verifier.verify(violations::add);
+        return violations.stream()
+                .filter(v -> v.getContractId() == contract.getContractId())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Test that a contract maintained via its public methods has no violations.
+     */
+    @Test
+    public void testConsistentContractHasNoViolations() throws Exception {
+        final Contract contract = contractWithDeliveredLineItems("Verified Contract", 3);
+        final Contract loaded = contractService.loadByName("Verified Contract");
+        loaded.updateQuanity(loaded.getLineItems().get(0), 10);
+        contractService.save(loaded);
+        entityManager.flush();
+
+        Assert.assertTrue(violationsOf(contract).isEmpty());
+    }
+
+    /**
+     * Test that a contract whose product is repriced and which is then edited has no violations.
+     */
+    @Test
+    public void testRepricedContractHasNoViolations() throws Exception {
+        final long now = System.currentTimeMillis();
+        productService.upsertAll(Collections.singletonList(new Product("IV-R", "Jeep", usd("10.00"))),
+                new Date(now - 86_400_000L));
+        final Contract contract = new Contract("Repriced Contract");
+        contract.addLineItemToDelivery(contract.createLineItem(productService.findBySku("IV-R"), 1),
+                contract.createDelivery(new Date(), "London"));
+        contractService.save(contract);
+        entityManager.flush();
+        entityManager.clear();
+
+        productService.upsertAll(Collections.singletonList(new Product("IV-R", "Jeep", usd("20.00"))), new Date(now));
+        Assert.assertTrue(violationsOf(contract).isEmpty());
+
+        contractService.update("Repriced Contract", c -> c.updateQuanity(c.getLineItems().get(0), 3));
+        contractService.update("Repriced Contract", c -> c.createLineItem(c.getLineItems().get(0).getProduct(), 1));
+        contractService.update("Repriced Contract", c -> c.deleteLineItem(c.getLineItems().get(0)));
+        entityManager.flush();
+        Assert.assertTrue(violationsOf(contract).isEmpty());
+    }
+
+    /**
+     * Test that a total cost that does not match the line items is reported.
+     */
+    @Test
+    public void testTotalCostMismatchIsReported() throws Exception {
+        final Contract contract = contractWithDeliveredLineItems("Verified Contract", 2);
+        new JdbcTemplate(dataSource).update("update CONTRACT set AMOUNT = 1 where CONTRACT_ID = ?",
+                contract.getContractId());
+
+        final List<ContractInvariantVerifier.Violation> violations = violationsOf(contract);
+        Assert.assertEquals(1, violations.size());
+        Assert.assertEquals(ContractInvariantVerifier.Kind.TOTAL_COST_MISMATCH, violations.get(0).getKind());
+    }
+
+    /**
+     * Test that a contract that only looked broken because a save committed between the reads of its chunk is read
+     * again and not reported.
+     */
+    @Test
+    public void testStaleChunkIsRechecked() throws Exception {
+        final Contract contract = contractWithDeliveredLineItems("Verified Contract", 2);
+        final List<ContractInvariantVerifier.Violation> violations = new ArrayList<>();
+        final ContractInvariantVerifier.Pass pass = verifier.new Pass(0, dataSource, transactionManager, violations::add);
+        // the header was read before a save that added line items committed
+        final ContractInvariantVerifier.Chunk stale = new ContractInvariantVerifier.Chunk();
+        stale.contracts.put(contract.getContractId(), new ContractInvariantVerifier.ContractRows(FIVE_MILLION_USD));
+
+        pass.check(stale);
+        Assert.assertEquals(1, pass.suspects.size());
+        pass.recheckSuspects();
+        Assert.assertTrue(pass.suspects.isEmpty());
+        Assert.assertTrue(violations.isEmpty());
+    }
+
+    /**
+     * Test that a line item in two deliveries and a join row pointing at another contract are reported.
+     */
+    @Test
+    public void testJoinTableViolationsAreReported() throws Exception {
+        final Contract other = contractWithDeliveredLineItems("Other Contract", 1);
+        final Contract contract = contractWithDeliveredLineItems("Verified Contract", 1);
+        final Long lineItemId = contract.getLineItems().get(0).lineItemId();
+        final Long otherDeliveryId = other.getDeliveries().get(0).deliveryId();
+        // the id is well clear of the ids that Hibernate takes from the sequence
+        new JdbcTemplate(dataSource).update(
+                "insert into DELIVERY_LINEITEM (ID, CONTRACT_ID, DELIVERY_ID, LINEITEM_ID) values (?, ?, ?, ?)",
+                Integer.MAX_VALUE, contract.getContractId(), otherDeliveryId, lineItemId);
+
+        final List<ContractInvariantVerifier.Kind> kinds = violationsOf(contract).stream()
+                .map(ContractInvariantVerifier.Violation::getKind).collect(Collectors.toList());
+        Assert.assertEquals(2, kinds.size());
+        Assert.assertTrue(kinds.contains(ContractInvariantVerifier.Kind.LINE_ITEM_IN_MANY_DELIVERIES));
+        Assert.assertTrue(kinds.contains(ContractInvariantVerifier.Kind.JOIN_ROW_CONTRACT_MISMATCH));
+        Assert.assertTrue(violationsOf(other).isEmpty());
+    }
+}
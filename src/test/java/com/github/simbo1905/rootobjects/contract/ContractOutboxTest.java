@@ -0,0 +1,182 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * This test is not transactional as the relay commits the removal of what it publishes. Each test uses its own
+ * contract names and first drains any changes left behind by other tests.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+public class ContractOutboxTest {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected ContractOutboxRelay relay;
+
+    @Autowired
+    protected PlatformTransactionManager transactionManager;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    private final List<ContractChange> published = new ArrayList<>();
+
+    @Before
+    public void drainOutbox() {
+        relay.drain(changes -> {}, 100);
+    }
+
+    private Product product(String sku) {
+        final Product existing = productService.findBySku(sku);
+        if( existing != null ) return existing;
+        final Product product = new Product(sku, "Heavy Tank", FIVE_MILLION_USD);
+        productService.save(product);
+        return product;
+    }
+
+    private List<String> publishedFor(String name) {
+        return published.stream().map(ContractChange::getPayload)
+                .filter(p -> p.contains("\"name\":\"" + name + "\""))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Test that a new contract is published once with its line items and deliveries and then removed from the outbox.
+     */
+    @Test
+    public void testNewContractIsPublished() throws Exception {
+        final Contract contract = new Contract("Outbox New");
+        final Delivery delivery = contract.createDelivery(new Date(), "London");
+        contract.addLineItemToDelivery(contract.createLineItem(product("OB01"), 2), delivery);
+        contractService.save(contract);
+
+        Assert.assertTrue(relay.drain(published::addAll, 10) >= 1);
+        final List<String> payloads = publishedFor("Outbox New");
+        Assert.assertEquals(1, payloads.size());
+        final String payload = payloads.get(0);
+        Assert.assertTrue(payload, payload.contains("\"created\":true"));
+        Assert.assertTrue(payload, payload.contains("\"amount\":\"10000000.00\""));
+        Assert.assertTrue(payload, payload.contains(",\"quantity\":2}"));
+        Assert.assertTrue(payload, payload.contains("\"deliveriesDeleted\":[]"));
+
+        Assert.assertEquals(0, relay.drain(published::addAll, 10));
+    }
+
+    /**
+     * Test that only the net changes since the contract was loaded are published.
+     */
+    @Test
+    public void testNetChangesArePublished() throws Exception {
+        final Contract contract = new Contract("Outbox Changes");
+        final Delivery london = contract.createDelivery(new Date(), "London");
+        contract.createDelivery(new Date(), "Paris");
+        contract.addLineItemToDelivery(contract.createLineItem(product("OB02"), 1), london);
+        contract.addLineItemToDelivery(contract.createLineItem(product("OB02"), 1), london);
+        contractService.save(contract);
+        relay.drain(changes -> {}, 10);
+
+        final long[] ids = new TransactionTemplate(transactionManager).execute(status -> {
+            final Contract loaded = contractService.loadByName("Outbox Changes");
+            final LineItem first = loaded.getLineItems().get(0);
+            final LineItem second = loaded.getLineItems().get(1);
+            final Delivery from = loaded.getDeliveries().get(0);
+            final Delivery to = loaded.getDeliveries().get(1);
+            loaded.updateQuanity(first, 5);
+            loaded.addLineItemToDelivery(second, to);
+            // a line item created and deleted before the save is not a net change
+            loaded.deleteLineItem(loaded.createLineItem(product("OB02"), 9));
+            contractService.save(loaded);
+            return new long[]{first.lineItemId(), second.lineItemId(), from.deliveryId(), to.deliveryId()};
+        });
+
+        relay.drain(published::addAll, 10);
+        final List<String> payloads = publishedFor("Outbox Changes");
+        Assert.assertEquals(1, payloads.size());
+        final String payload = payloads.get(0);
+        Assert.assertTrue(payload, payload.contains("\"created\":false"));
+        Assert.assertTrue(payload, payload.contains("\"lineItemsAdded\":[]"));
+        Assert.assertTrue(payload, payload.contains("\"lineItemsRemoved\":[]"));
+        Assert.assertTrue(payload, payload.contains("\"lineItemsRequantified\":[{\"id\":" + ids[0] + ",\"quantity\":5}]"));
+        Assert.assertTrue(payload, payload.contains(
+                "\"assignments\":[{\"lineItemId\":" + ids[1] + ",\"from\":" + ids[2] + ",\"to\":" + ids[3] + "}]"));
+    }
+
+    /**
+     * Test that saving a contract that has not changed does not write to the outbox.
+     */
+    @Test
+    public void testUnchangedContractIsNotPublished() throws Exception {
+        final Contract contract = new Contract("Outbox Unchanged");
+        contract.createLineItem(product("OB03"), 1);
+        contractService.save(contract);
+        relay.drain(changes -> {}, 10);
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            contractService.save(contractService.loadByName("Outbox Unchanged"));
+            return null;
+        });
+
+        Assert.assertEquals(0, relay.drain(published::addAll, 10));
+    }
+
+    /**
+     * Test that the changes of a contract are taken by its save but put back when the transaction rolls back.
+     */
+    @Test
+    public void testRolledBackSaveKeepsChanges() throws Exception {
+        final Contract contract = new Contract("Outbox Rolled Back");
+        contract.createLineItem(product("OB05"), 1);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            contractService.save(contract);
+            Assert.assertTrue(contract.changes.isEmpty());
+            status.setRollbackOnly();
+            return null;
+        });
+        Assert.assertFalse(contract.changes.isEmpty());
+
+        relay.drain(published::addAll, 10);
+        Assert.assertTrue(publishedFor("Outbox Rolled Back").isEmpty());
+    }
+
+    /**
+     * Test that changes that fail to publish stay in the outbox to be published by the next run.
+     */
+    @Test
+    public void testFailedPublishKeepsChanges() throws Exception {
+        final Contract contract = new Contract("Outbox Retried");
+        contract.createLineItem(product("OB04"), 1);
+        contractService.save(contract);
+
+        try {
+            relay.relayBatch(changes -> { throw new java.io.IOException("sink unavailable"); }, 10);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof java.io.IOException);
+        }
+
+        relay.drain(published::addAll, 10);
+        Assert.assertEquals(1, publishedFor("Outbox Retried").size());
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares saving a stream of edits one at a time with saving them through the ContractSavePipeline with different
+ * numbers of lanes. It uses the durable on disk Derby profile so that each commit pays for a log write. Run it with
+ * "mvn -Pbenchmark test -Dtest=ContractSavePipelineBenchmark". The system properties that it sets are put back
+ * afterwards.
+ */
+public class ContractSavePipelineBenchmark {
+
+    static final String[] PROPERTIES = {"derby.durable.path", "hibernate.hbm2ddl.auto"};
+
+    private static final Map<String, String> saved = new HashMap<>();
+
+    @BeforeClass
+    public static void saveProperties() {
+        for( String key : PROPERTIES ) {
+            saved.put(key, System.getProperty(key));
+        }
+    }
+
+    @AfterClass
+    public static void restoreProperties() {
+        saved.forEach((key, value) -> {
+            if( value == null ) {
+                System.clearProperty(key);
+            } else {
+                System.setProperty(key, value);
+            }
+        });
+    }
+
+    static final String DB_PATH = "target/derby/pipelineDB";
+    static final int CONTRACTS = 40;
+    static final int EDITS_PER_CONTRACT = 25;
+
+    static final String[] DURABLE = {"classpath:durableDataSourceContext.xml", "classpath:application-context.xml"};
+
+    @Test
+    public void benchmark() throws Exception {
+        System.setProperty("derby.durable.path", DB_PATH);
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        FileSystemUtils.deleteRecursively(new File(DB_PATH));
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(DURABLE)) {
+            final ProductService productService = context.getBean(ProductService.class);
+            final ContractService contractService = context.getBean(ContractService.class);
+            final PlatformTransactionManager transactionManager = context.getBean(PlatformTransactionManager.class);
+            final Product product = new Product("PB01", "Heavy Tank", new Money("USD", new BigDecimal("5000000.00")));
+            productService.save(product);
+
+            for( int run = 1; run <= 2; run++ ) {
+                synchronous("synchronous #" + run, contractService, transactionManager, product);
+                for( int lanes : new int[]{1, 4, 8} ) {
+                    pipelined("pipeline " + lanes + " lanes #" + run, contractService, product, lanes);
+                }
+            }
+        }
+    }
+
+    private static ContractSavePipeline.ContractEdit addLineItem(Product product) {
+        return contract -> contract.createLineItem(product, 1);
+    }
+
+    private void synchronous(String label, ContractService contractService,
+                             PlatformTransactionManager transactionManager, Product product) {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        final long started = System.nanoTime();
+        for( int edit = 0; edit < EDITS_PER_CONTRACT; edit++ ) {
+            for( int c = 0; c < CONTRACTS; c++ ) {
+                final String name = label + " " + c;
+                transactionTemplate.execute(status -> {
+                    Contract contract = contractService.loadByName(name);
+                    if( contract == null ) contract = new Contract(name);
+                    addLineItem(product).apply(contract);
+                    contractService.save(contract);
+                    return null;
+                });
+            }
+        }
+        report(label, System.nanoTime() - started, null);
+    }
+
+    private void pipelined(String label, ContractService contractService, Product product, int lanes) throws Exception {
+        final long started = System.nanoTime();
+        final ContractSavePipeline pipeline = new ContractSavePipeline(contractService, lanes, 64);
+        final List<CompletableFuture<Void>> saved = new ArrayList<>();
+        for( int edit = 0; edit < EDITS_PER_CONTRACT; edit++ ) {
+            for( int c = 0; c < CONTRACTS; c++ ) {
+                saved.add(pipeline.submit(label + " " + c, addLineItem(product)));
+            }
+        }
+        CompletableFuture.allOf(saved.toArray(new CompletableFuture<?>[0])).get();
+        pipeline.close();
+        report(label, System.nanoTime() - started, pipeline.metrics());
+    }
+
+    private static void report(String label, long nanos, ContractSavePipeline.Metrics metrics) {
+        final int edits = CONTRACTS * EDITS_PER_CONTRACT;
+        System.out.println(String.format("%-22s | %5d edits/s | %s", label, edits * 1_000_000_000L / nanos,
+                metrics == null ? edits + " transactions" : metrics.getTransactions() + " transactions, mean commit "
+                        + metrics.getMeanCommitMicros() + " us, max commit " + metrics.getMaxCommitMicros() + " us"));
+    }
+}
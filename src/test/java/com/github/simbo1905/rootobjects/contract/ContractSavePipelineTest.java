@@ -0,0 +1,236 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * This test is not transactional as the pipeline commits on its own threads. Each test uses its own contract names.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+public class ContractSavePipelineTest {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    private Product product;
+
+    private ContractSavePipeline pipeline;
+
+    @Before
+    public void createProduct() {
+        product = productService.findBySku("SP01");
+        if( product == null ) {
+            product = new Product("SP01", "Heavy Tank", FIVE_MILLION_USD);
+            productService.save(product);
+        }
+    }
+
+    @After
+    public void closePipeline() {
+        if( pipeline != null ) pipeline.close();
+    }
+
+    /**
+     * An edit that sets the quantity of the only line item to the next value, failing if an edit was lost or applied
+     * out of order.
+     */
+    private ContractSavePipeline.ContractEdit setQuantity(int quantity) {
+        return contract -> {
+            if( contract.getLineItems().isEmpty() ) contract.createLineItem(product, 0);
+            final LineItem lineItem = contract.getLineItems().get(0);
+            if( lineItem.getQuantity() != quantity - 1 ) {
+                throw new IllegalStateException("expected " + (quantity - 1) + " but was " + lineItem.getQuantity());
+            }
+            contract.updateQuanity(lineItem, quantity);
+        };
+    }
+
+    /**
+     * An edit that counts down started when the writer applies it and then waits for release.
+     */
+    private static ContractSavePipeline.ContractEdit waitFor(CountDownLatch started, CountDownLatch release) {
+        return contract -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> futures) throws Exception {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Test that concurrent edits to many contracts are each applied once and in order.
+     */
+    @Test
+    public void testEditsAreAppliedInOrderPerContract() throws Exception {
+        pipeline = new ContractSavePipeline(contractService, 4, 8);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for( int quantity = 1; quantity <= 20; quantity++ ) {
+            for( int c = 0; c < 6; c++ ) {
+                futures.add(pipeline.submit("Pipeline Ordered " + c, setQuantity(quantity)));
+            }
+        }
+        awaitAll(futures);
+
+        for( int c = 0; c < 6; c++ ) {
+            Assert.assertEquals(20, contractService.loadViewByName("Pipeline Ordered " + c).quantity(0));
+        }
+        final ContractSavePipeline.Metrics metrics = pipeline.metrics();
+        Assert.assertEquals(120, metrics.getSubmitted());
+        Assert.assertEquals(120, metrics.getSaved());
+        Assert.assertEquals(0, metrics.getFailed());
+        Assert.assertTrue(metrics.getTransactions() <= 120);
+        Assert.assertTrue(metrics.getMaxCommitMicros() >= metrics.getMeanCommitMicros());
+    }
+
+    /**
+     * Test that edits that pile up behind a slow edit are saved in one transaction.
+     */
+    @Test
+    public void testEditsThatPileUpAreCoalesced() throws Exception {
+        pipeline = new ContractSavePipeline(contractService, 1, 16);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(pipeline.submit("Pipeline Coalesced", waitFor(started, release)));
+        // wait for the writer to take the slow edit so the others queue behind it
+        Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+        for( int quantity = 1; quantity <= 10; quantity++ ) {
+            futures.add(pipeline.submit("Pipeline Coalesced", setQuantity(quantity)));
+        }
+        release.countDown();
+        awaitAll(futures);
+
+        Assert.assertEquals(10, contractService.loadViewByName("Pipeline Coalesced").quantity(0));
+        Assert.assertEquals(2, pipeline.metrics().getTransactions());
+    }
+
+    /**
+     * Test that an edit that fails does not fail the edits that were coalesced with it.
+     */
+    @Test
+    public void testFailedEditFailsAlone() throws Exception {
+        pipeline = new ContractSavePipeline(contractService, 1, 16);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline.submit("Pipeline Failed", waitFor(new CountDownLatch(1), release));
+        final CompletableFuture<Void> first = pipeline.submit("Pipeline Failed", setQuantity(1));
+        final CompletableFuture<Void> broken = pipeline.submit("Pipeline Failed", setQuantity(5));
+        final CompletableFuture<Void> second = pipeline.submit("Pipeline Failed", setQuantity(2));
+        release.countDown();
+
+        first.get(30, TimeUnit.SECONDS);
+        second.get(30, TimeUnit.SECONDS);
+        try {
+            broken.get(30, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(2, contractService.loadViewByName("Pipeline Failed").quantity(0));
+        Assert.assertEquals(1, pipeline.metrics().getFailed());
+    }
+
+    /**
+     * Test that an edit that throws an Error fails its future and the writer goes on to save the later edits rather
+     * than dying with the lane still full.
+     */
+    @Test
+    public void testErrorDoesNotStopTheLane() throws Exception {
+        pipeline = new ContractSavePipeline(contractService, 1, 2);
+        final CompletableFuture<Void> broken = pipeline.submit("Pipeline Error", contract -> {
+            throw new AssertionError("broken edit");
+        });
+        try {
+            broken.get(30, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        }
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for( int quantity = 1; quantity <= 5; quantity++ ) {
+            futures.add(pipeline.submit("Pipeline Error", setQuantity(quantity)));
+        }
+        awaitAll(futures);
+
+        Assert.assertEquals(5, contractService.loadViewByName("Pipeline Error").quantity(0));
+        Assert.assertEquals(1, pipeline.metrics().getFailed());
+    }
+
+    /**
+     * Test that submit blocks while the lane is full.
+     */
+    @Test
+    public void testFullLanePushesBack() throws Exception {
+        pipeline = new ContractSavePipeline(contractService, 1, 2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline.submit("Pipeline Full", waitFor(started, release));
+        // wait for the writer to take the slow edit so the lane is empty again
+        Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+        pipeline.submit("Pipeline Full", setQuantity(1));
+        pipeline.submit("Pipeline Full", setQuantity(2));
+        Assert.assertArrayEquals(new int[]{2}, pipeline.metrics().getLaneDepths());
+
+        final ExecutorService producer = Executors.newSingleThreadExecutor();
+        try {
+            final Future<CompletableFuture<Void>> blocked =
+                    producer.submit(() -> pipeline.submit("Pipeline Full", setQuantity(3)));
+            try {
+                blocked.get(200, TimeUnit.MILLISECONDS);
+                Assert.fail();
+            } catch (TimeoutException e) {
+                // expected
+            }
+            release.countDown();
+            blocked.get(30, TimeUnit.SECONDS).get(30, TimeUnit.SECONDS);
+        } finally {
+            producer.shutdownNow();
+        }
+        Assert.assertEquals(3, contractService.loadViewByName("Pipeline Full").quantity(0));
+    }
+
+    /**
+     * Test that close saves what is queued and then refuses new edits.
+     */
+    @Test
+    public void testCloseSavesQueuedEdits() throws Exception {
+        pipeline = new ContractSavePipeline(contractService, 2, 16);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for( int quantity = 1; quantity <= 5; quantity++ ) {
+            futures.add(pipeline.submit("Pipeline Closed", setQuantity(quantity)));
+        }
+        pipeline.close();
+        futures.forEach(f -> Assert.assertTrue(f.isDone() && !f.isCompletedExceptionally()));
+        try {
+            pipeline.submit("Pipeline Closed", setQuantity(6));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
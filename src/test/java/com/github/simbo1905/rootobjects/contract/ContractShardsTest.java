@@ -0,0 +1,357 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.persistence.OptimisticLockException;
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * This test is not transactional as each shard commits its own transactions. Each test uses its own contract names.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml","classpath:shardContext.xml"})
+public class ContractShardsTest {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected ContractShards contractShards;
+
+    @Autowired
+    protected ContractArchiver contractArchiver;
+
+    @Autowired
+    protected ContractInvariantVerifier contractInvariantVerifier;
+
+    @Autowired @Qualifier("shard0")
+    protected DataSource shard0;
+
+    @Autowired @Qualifier("shard1")
+    protected DataSource shard1;
+
+    @Autowired @Qualifier("shard2")
+    protected DataSource shard2;
+
+    @Autowired @Qualifier("dataSource")
+    protected DataSource catalogue;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    private Product catalogueProduct() {
+        final Product existing = productService.findBySku("SH01");
+        if( existing != null ) return existing;
+        final Product product = new Product("SH01", "Heavy Tank", FIVE_MILLION_USD);
+        productService.save(product);
+        return product;
+    }
+
+    private void saveContract(String name, int quantity) {
+        final Contract contract = new Contract(name);
+        final Delivery delivery = contract.createDelivery(new Date(), "London");
+        contract.addLineItemToDelivery(contract.createLineItem(catalogueProduct(), quantity), delivery);
+        contractService.save(contract);
+    }
+
+    private int countInShard(DataSource shard, String name) {
+        return new JdbcTemplate(shard).queryForObject("select count(*) from CONTRACT where NAME = ?", Integer.class, name);
+    }
+
+    private JdbcTemplate shardOf(String name) {
+        return new JdbcTemplate(new DataSource[]{shard0, shard1, shard2}[contractShards.shardOf(name)]);
+    }
+
+    /**
+     * Test that a contract is saved only in its own shard and can be loaded back with its delivery assignments.
+     */
+    @Test
+    public void testContractRoundTripsThroughItsShard() throws Exception {
+        final String name = "Routed Contract";
+        saveContract(name, 2);
+
+        final DataSource[] shards = {shard0, shard1, shard2};
+        for( int i = 0; i < shards.length; i++ ) {
+            Assert.assertEquals(i == contractShards.shardOf(name) ? 1 : 0, countInShard(shards[i], name));
+        }
+
+        final Contract loaded = contractService.loadByName(name);
+        Assert.assertEquals(FIVE_MILLION_USD.times(2), loaded.getTotalCost());
+        final LineItem lineItem = loaded.getLineItems().get(0);
+        Assert.assertEquals("SH01", lineItem.getProduct().getSku());
+        Assert.assertEquals(loaded.getDeliveries().get(0), lineItem.delivery.get());
+    }
+
+    /**
+     * Test that search and summaries gather contracts from every shard in name order.
+     */
+    @Test
+    public void testFanOutQueriesMergeShards() throws Exception {
+        final List<String> names = Arrays.asList("Fan Out A", "Fan Out B", "Fan Out C", "Fan Out D", "Fan Out E");
+        Assert.assertTrue(names.stream().map(contractShards::shardOf).distinct().count() > 1);
+        for( int i = names.size() - 1; i >= 0; i-- ) {
+            saveContract(names.get(i), i + 1);
+        }
+
+        final List<Contract> found = contractService.searchByName("Fan Out");
+        Assert.assertEquals(names, found.stream().map(Contract::getName).collect(Collectors.toList()));
+        Assert.assertEquals(1, found.get(0).getLineItems().size());
+
+        final List<ContractSummary> summaries = contractService.summaries().stream()
+                .filter(s -> s.getName().startsWith("Fan Out")).collect(Collectors.toList());
+        Assert.assertEquals(names, summaries.stream().map(ContractSummary::getName).collect(Collectors.toList()));
+        Assert.assertEquals(FIVE_MILLION_USD.times(5), summaries.get(4).getTotalCost());
+        Assert.assertEquals(1, summaries.get(4).getDeliveryCount());
+    }
+
+    /**
+     * Test that a closed contract is archived within its shard and is restored from there when loaded.
+     */
+    @Test
+    public void testContractIsArchivedInItsShard() throws Exception {
+        final String name = "Archived Sharded Contract";
+        final Contract contract = new Contract(name);
+        contract.addLineItemToDelivery(contract.createLineItem(catalogueProduct(), 1), contract.createDelivery(new Date(), "London"));
+        contract.close(new Date(978307200000L));
+        contractService.save(contract);
+
+        Assert.assertEquals(1, contractArchiver.archiveAll(new Date(), 10));
+
+        final DataSource shard = new DataSource[]{shard0, shard1, shard2}[contractShards.shardOf(name)];
+        Assert.assertEquals(0, countInShard(shard, name));
+        final Contract restored = contractService.loadByName(name);
+        Assert.assertTrue(restored.isArchived());
+        Assert.assertEquals("SH01", restored.getLineItems().get(0).getProduct().getSku());
+        Assert.assertEquals("London", restored.getLineItems().get(0).delivery.get().getLocation());
+    }
+
+    /**
+     * Test that a loaded contract can be edited and saved more than once as the ids of the entities that the first
+     * save created are copied back to it.
+     */
+    @Test
+    public void testLoadedContractCanBeSavedTwice() throws Exception {
+        final String name = "Twice Saved Contract";
+        saveContract(name, 1);
+
+        final Contract contract = contractService.loadByName(name);
+        contract.createLineItem(catalogueProduct(), 1);
+        contractService.save(contract);
+        contract.addLineItemToDelivery(contract.createLineItem(catalogueProduct(), 1), contract.getDeliveries().get(0));
+        contractService.save(contract);
+
+        final JdbcTemplate jdbc = shardOf(name);
+        Assert.assertEquals(Integer.valueOf(3), jdbc.queryForObject("select count(*) from LINEITEM l " +
+                "join CONTRACT c on c.CONTRACT_ID = l.CONTRACT_ID where c.NAME = ?", Integer.class, name));
+        Assert.assertEquals(Integer.valueOf(2), jdbc.queryForObject("select count(*) from DELIVERY_LINEITEM dli " +
+                "join CONTRACT c on c.CONTRACT_ID = dli.CONTRACT_ID where c.NAME = ?", Integer.class, name));
+        Assert.assertEquals(FIVE_MILLION_USD.times(3), contractService.loadByName(name).getTotalCost());
+    }
+
+    /**
+     * Test that a change of price in the catalogue is pushed to the copy of the product in the shard by the upsert
+     * rather than when the contract is next read.
+     */
+    @Test
+    public void testShardProductsFollowTheCatalogue() throws Exception {
+        final Product product = new Product("SH02", "Light Tank", FIVE_MILLION_USD);
+        productService.save(product);
+        final String name = "Repriced Contract";
+        final Contract contract = new Contract(name);
+        contract.createLineItem(product, 1);
+        contractService.save(contract);
+
+        final Money sixMillion = new Money("USD", new BigDecimal("6000000.00"));
+        productService.upsertAll(Collections.singletonList(new Product("SH02", "Light Tank", sixMillion)), new Date());
+
+        Assert.assertEquals(0, sixMillion.getAmount().compareTo(shardOf(name).queryForObject(
+                "select AMOUNT from PRODUCT where SKU = 'SH02'", BigDecimal.class)));
+        final Money price = contractService.loadByName(name).getLineItems().get(0).getProduct().getPrice();
+        Assert.assertEquals(0, sixMillion.getAmount().compareTo(price.getAmount()));
+        // the line item keeps the price it was created at
+        Assert.assertEquals(0, FIVE_MILLION_USD.getAmount().compareTo(
+                contractService.loadViewByName(name).unitPrice(0).getAmount()));
+    }
+
+    /**
+     * Test that the verifier walks every shard and reports the shard of a broken contract.
+     */
+    @Test
+    public void testVerifierChecksEveryShard() throws Exception {
+        final String name = "Corrupted Sharded Contract";
+        saveContract(name, 1);
+        shardOf(name).update("update CONTRACT set AMOUNT = AMOUNT + 1 where NAME = ?", name);
+        final Long contractId = shardOf(name).queryForObject("select CONTRACT_ID from CONTRACT where NAME = ?", Long.class, name);
+
+        final List<ContractInvariantVerifier.Violation> violations = new ArrayList<>();
+        contractInvariantVerifier.verify(violations::add);
+
+        Assert.assertEquals(1, violations.stream().filter(v -> v.getShard() == contractShards.shardOf(name)
+                && v.getContractId() == contractId).count());
+    }
+
+    /**
+     * Test that a compact contract is saved in its shard and can be edited and saved again from the compact form that
+     * the save returns.
+     */
+    @Test
+    public void testCompactContractSavesInItsShard() throws Exception {
+        final String name = "Compact Sharded Contract";
+        final CompactContract compact = new CompactContract(name);
+        compact.assignToDelivery(compact.createLineItem(catalogueProduct(), 1), compact.createDelivery(new Date(), "London"));
+        final CompactContract saved = contractService.save(compact);
+        saved.assignToDelivery(saved.createLineItem(catalogueProduct(), 2), 0);
+        contractService.save(saved);
+
+        Assert.assertEquals(1, countInShard(new DataSource[]{shard0, shard1, shard2}[contractShards.shardOf(name)], name));
+        final Contract loaded = contractService.loadByName(name);
+        Assert.assertEquals(2, loaded.getLineItems().size());
+        Assert.assertEquals(2, loaded.getDeliveries().get(0).getLineItems().size());
+        Assert.assertEquals(FIVE_MILLION_USD.times(3), loaded.getTotalCost());
+    }
+
+    /**
+     * Test that the save pipeline loads, edits and saves a contract in a transaction on its shard.
+     */
+    @Test
+    public void testPipelineSavesInTheShard() throws Exception {
+        final String name = "Pipelined Sharded Contract";
+        final Product product = catalogueProduct();
+        try( ContractSavePipeline pipeline = new ContractSavePipeline(contractService, 2, 8) ) {
+            final List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for( int i = 0; i < 3; i++ ) {
+                futures.add(pipeline.submit(name, contract -> contract.createLineItem(product, 1)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(Integer.valueOf(3), shardOf(name).queryForObject("select count(*) from LINEITEM l " +
+                "join CONTRACT c on c.CONTRACT_ID = l.CONTRACT_ID where c.NAME = ?", Integer.class, name));
+        Assert.assertEquals(FIVE_MILLION_USD.times(3), contractService.loadByName(name).getTotalCost());
+    }
+
+    /**
+     * Test that a copy of a contract that is saved after another copy was saved fails rather than overwriting it.
+     */
+    @Test
+    public void testStaleCopyCannotBeSaved() throws Exception {
+        final String name = "Stale Sharded Contract";
+        saveContract(name, 1);
+        final Contract first = contractService.loadByName(name);
+        final Contract second = contractService.loadByName(name);
+        first.createLineItem(catalogueProduct(), 1);
+        contractService.save(first);
+
+        second.createLineItem(catalogueProduct(), 2);
+        try {
+            contractService.save(second);
+            Assert.fail();
+        } catch (OptimisticLockException e) {
+            // expected
+        }
+        Assert.assertEquals(FIVE_MILLION_USD.times(2), contractService.loadByName(name).getTotalCost());
+    }
+
+    /**
+     * Test that a copy of a contract that was loaded before the contract was closed and archived cannot be saved.
+     */
+    @Test
+    public void testCopyLoadedBeforeArchivingCannotBeSaved() throws Exception {
+        final String name = "Archived Stale Sharded Contract";
+        saveContract(name, 1);
+        final Contract stale = contractService.loadByName(name);
+        final Contract closing = contractService.loadByName(name);
+        closing.close(new Date(978307200000L));
+        contractService.save(closing);
+        contractArchiver.archiveAll(new Date(), 10);
+
+        stale.createLineItem(catalogueProduct(), 1);
+        try {
+            contractService.save(stale);
+            Assert.fail();
+        } catch (OptimisticLockingFailureException e) {
+            // expected
+        }
+        Assert.assertEquals(0, countInShard(new DataSource[]{shard0, shard1, shard2}[contractShards.shardOf(name)], name));
+        Assert.assertTrue(contractService.loadByName(name).isArchived());
+    }
+
+    private static BasicDataSource newShardDatabase() {
+        final BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
+        dataSource.setUrl("jdbc:derby:memory:outbox-" + UUID.randomUUID() + ";create=true");
+        return dataSource;
+    }
+
+    /**
+     * Test that the changes of two new shards, which generate the same contract ids and sequence numbers, are told
+     * apart by their shard.
+     */
+    @Test
+    public void testOutboxChangesOfEachShardHaveDistinctKeys() throws Exception {
+        final List<BasicDataSource> dataSources = Arrays.asList(newShardDatabase(), newShardDatabase());
+        final Properties jpaProperties = new Properties();
+        jpaProperties.setProperty("hibernate.ejb.naming_strategy", "org.hibernate.cfg.ImprovedNamingStrategy");
+        jpaProperties.setProperty("hibernate.dialect", "org.hibernate.dialect.DerbyDialect");
+        jpaProperties.setProperty("hibernate.hbm2ddl.auto", "create");
+        try (ContractShards twoShards = new ContractShards(new ArrayList<>(dataSources), jpaProperties, catalogue)) {
+            final String[] names = new String[2];
+            for( int i = 0; names[0] == null || names[1] == null; i++ ) {
+                final String name = "Outbox Sharded " + i;
+                if( names[twoShards.shardOf(name)] == null ) names[twoShards.shardOf(name)] = name;
+            }
+            for( String name : names ) {
+                final Contract contract = new Contract(name);
+                contract.createLineItem(catalogueProduct(), 1);
+                twoShards.save(contract);
+            }
+            final ContractOutboxRelay relay = new ContractOutboxRelay();
+            relay.contractShards = Optional.of(twoShards);
+            final List<ContractChange> published = new ArrayList<>();
+            relay.drain(published::addAll, 10);
+
+            Assert.assertEquals(2, published.size());
+            final ContractChange first = published.get(0);
+            final ContractChange second = published.get(1);
+            Assert.assertEquals(first.getContractId(), second.getContractId());
+            Assert.assertEquals(first.getSequence(), second.getSequence());
+            Assert.assertEquals(0, first.getShard());
+            Assert.assertEquals(1, second.getShard());
+            Assert.assertTrue(first.getPayload(), first.getPayload().startsWith("{\"shard\":0,"));
+            Assert.assertTrue(second.getPayload(), second.getPayload().startsWith("{\"shard\":1,"));
+            Assert.assertEquals(2, published.stream()
+                    .map(c -> Arrays.asList((long) c.getShard(), c.getContractId(), c.getSequence()))
+                    .distinct().count());
+        } finally {
+            for( BasicDataSource dataSource : dataSources ) {
+                dataSource.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+@Transactional
+public class ContractTimeCostTest {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected EntityManager entityManager;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    static Money SIX_MILLION_USD = new Money("USD", new BigDecimal("6000000.00"));
+
+    static Money usd(String amount) {
+        return new Money("USD", new BigDecimal(amount));
+    }
+
+    /**
+     * Test that a contract can be costed at the prices in effect when it was created after a price rise while its
+     * line items keep the prices they were created at.
+     */
+    @Test
+    public void testCostAtContractTime() throws Exception {
+        final long now = System.currentTimeMillis();
+        productService.upsertAll(Collections.singletonList(new Product("CT-T", "Heavy Tank", FIVE_MILLION_USD)),
+                new Date(now - 86_400_000L));
+        final Contract contract = new Contract("Contract Time Cost");
+        contract.createLineItem(productService.findBySku("CT-T"), 2);
+        contractService.save(contract);
+
+        productService.upsertAll(Collections.singletonList(new Product("CT-T", "Heavy Tank", SIX_MILLION_USD)),
+                new Date(now + 1000L));
+        // the upsert committed in a transaction of its own so this transaction still holds the old price
+        entityManager.flush();
+        entityManager.clear();
+
+        final Contract loaded = contractService.loadByName("Contract Time Cost");
+        Assert.assertNotNull(loaded.getCreatedAt());
+        final LineItem lineItem = loaded.getLineItems().get(0);
+        Assert.assertEquals(0, new BigDecimal("10000000.00").compareTo(lineItem.cost().getAmount()));
+        // a line item added after the price rise is at the new price but costed at the old one at contract time
+        loaded.createLineItem(lineItem.getProduct(), 1);
+        Assert.assertEquals(0, new BigDecimal("16000000.00").compareTo(loaded.getTotalCost().getAmount()));
+        Assert.assertEquals(0, new BigDecimal("15000000.00").compareTo(
+                loaded.costAtContractTime(productService).getAmount()));
+    }
+
+    /**
+     * Test that a price change does not change the cost of existing line items so the total cost stays the sum of
+     * the line items when they are edited or deleted afterwards.
+     */
+    @Test
+    public void testRepriceThenEditKeepsTotalCost() throws Exception {
+        final long now = System.currentTimeMillis();
+        productService.upsertAll(Collections.singletonList(new Product("CT-R", "Jeep", usd("10.00"))),
+                new Date(now - 86_400_000L));
+        final Contract contract = new Contract("Repriced Contract");
+        contract.createLineItem(productService.findBySku("CT-R"), 1);
+        contractService.save(contract);
+
+        productService.upsertAll(Collections.singletonList(new Product("CT-R", "Jeep", usd("20.00"))), new Date(now));
+        entityManager.flush();
+        entityManager.clear();
+
+        Assert.assertEquals(0, new BigDecimal("10.00").compareTo(
+                contractService.loadViewByName("Repriced Contract").cost(0).getAmount()));
+        contractService.update("Repriced Contract", c -> c.updateQuanity(c.getLineItems().get(0), 3));
+        contractService.update("Repriced Contract", c -> c.createLineItem(c.getLineItems().get(0).getProduct(), 1));
+        contractService.update("Repriced Contract", c -> c.deleteLineItem(c.getLineItems().get(0)));
+        entityManager.flush();
+        entityManager.clear();
+
+        final Contract loaded = contractService.loadByName("Repriced Contract");
+        Assert.assertEquals(1, loaded.getLineItems().size());
+        Assert.assertEquals(0, new BigDecimal("20.00").compareTo(loaded.getTotalCost().getAmount()));
+        final ContractView view = contractService.loadViewByName("Repriced Contract");
+        Assert.assertEquals(0, new BigDecimal("20.00").compareTo(view.unitPrice(0).getAmount()));
+        Assert.assertEquals(0, view.getTotalCost().getAmount().compareTo(view.cost(0).getAmount()));
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.hibernate.Session;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+@Transactional
+public class ContractViewTest {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected ContractArchiver archiver;
+
+    @Autowired
+    protected EntityManager entityManager;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    static Money ONE_MILLION_USD = new Money("USD", new BigDecimal("1000000.00"));
+
+    /**
+     * Saves a contract with a tank in London, two jeeps in Paris and three undelivered jeeps.
+     */
+    private Contract saveContract(String name) {
+        final Product tank = new Product("CV-T-" + name, "Heavy Tank", FIVE_MILLION_USD);
+        final Product jeep = new Product("CV-J-" + name, "Jeep", ONE_MILLION_USD);
+        productService.save(tank);
+        productService.save(jeep);
+        final Contract contract = new Contract(name);
+        final Delivery london = contract.createDelivery(new Date(1000L), "London");
+        final Delivery paris = contract.createDelivery(new Date(2000L), "Paris");
+        contract.addLineItemToDelivery(contract.createLineItem(tank, 1), london);
+        contract.addLineItemToDelivery(contract.createLineItem(jeep, 2), paris);
+        contract.createLineItem(jeep, 3);
+        contractService.save(contract);
+        entityManager.flush();
+        entityManager.clear();
+        return contract;
+    }
+
+    private void assertViewOfSavedContract(ContractView view, String name) {
+        Assert.assertEquals(name, view.getName());
+        Assert.assertEquals(new Money("USD", new BigDecimal("10000000.00")), view.getTotalCost());
+
+        Assert.assertEquals(2, view.deliveryCount());
+        Assert.assertEquals("London", view.deliveryLocation(0));
+        Assert.assertEquals(new Date(2000L), view.deliveryDate(1));
+        Assert.assertArrayEquals(new int[]{0}, view.lineItemsOf(0));
+        Assert.assertArrayEquals(new int[]{1}, view.lineItemsOf(1));
+
+        Assert.assertEquals(3, view.lineItemCount());
+        Assert.assertEquals("CV-T-" + name, view.sku(0));
+        Assert.assertEquals(2, view.quantity(1));
+        Assert.assertEquals(new Money("USD", new BigDecimal("3000000.00")), view.cost(2));
+        Assert.assertEquals(0, view.deliveryOf(0));
+        Assert.assertEquals(1, view.deliveryOf(1));
+        Assert.assertEquals(-1, view.deliveryOf(2));
+    }
+
+    /**
+     * Test that a view holds the whole aggregate and that building it loads no entities.
+     */
+    @Test
+    public void testViewMatchesAggregate() throws Exception {
+        final Contract contract = saveContract("Viewed Contract");
+
+        final ContractView view = contractService.loadViewByName("Viewed Contract");
+
+        Assert.assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+        assertViewOfSavedContract(view, "Viewed Contract");
+        Assert.assertFalse(view.isArchived());
+        Assert.assertEquals(contract.getContractId().longValue(), view.getContractId());
+        Assert.assertEquals(contract.getLineItems().get(2).lineItemId().longValue(), view.lineItemId(2));
+    }
+
+    /**
+     * Test that changing what a view hands out does not change the view.
+     */
+    @Test
+    public void testViewCannotBeChanged() throws Exception {
+        saveContract("Unchanged View Contract");
+        final ContractView view = contractService.loadViewByName("Unchanged View Contract");
+
+        view.lineItemsOf(0)[0] = 2;
+        Assert.assertArrayEquals(new int[]{0}, view.lineItemsOf(0));
+    }
+
+    /**
+     * Test that an archived contract is viewed straight from the archive without loading any entities.
+     */
+    @Test
+    public void testViewOfArchivedContract() throws Exception {
+        final Contract contract = saveContract("Archived View Contract");
+        final Contract loaded = contractService.loadByName("Archived View Contract");
+        loaded.close(new Date(978307200000L));
+        contractService.save(loaded);
+        archiver.archiveAll(new Date(), 10);
+        entityManager.flush();
+        entityManager.clear();
+
+        final ContractView view = contractService.loadViewByName("Archived View Contract");
+        Assert.assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+        Assert.assertTrue(view.isArchived());
+        Assert.assertEquals(new Date(978307200000L), view.getClosedAt());
+        assertViewOfSavedContract(view, "Archived View Contract");
+        Assert.assertEquals(contract.getContractId().longValue(), view.getContractId());
+    }
+
+    /**
+     * Test that there is no view of a contract that does not exist.
+     */
+    @Test
+    public void testNoViewOfMissingContract() throws Exception {
+        Assert.assertNull(contractService.loadViewByName("Missing Contract"));
+    }
+
+    /**
+     * Test that a line item in a delivery that was saved after the deliveries were read is not viewed as being in
+     * no delivery but has the rows read again.
+     */
+    @Test(expected = ConcurrencyFailureException.class)
+    public void testDeliverySavedBetweenReadsIsDetected() throws Exception {
+        final Object[] header = {1L, "Racing Contract", "USD", new BigDecimal("1000000.00"), null};
+        final Object[] lineItem = {2L, 3L, "CV-R", "USD", new BigDecimal("1000000.00"), 1, 4L};
+        ContractView.of(header, Collections.emptyList(), Collections.singletonList(lineItem));
+    }
+}
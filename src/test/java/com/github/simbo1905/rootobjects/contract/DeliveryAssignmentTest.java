@@ -0,0 +1,155 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.*;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+@Transactional
+public class DeliveryAssignmentTest {
+
+    @Autowired
+    protected DataSource dataSource;
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected ContractService contractService;
+
+    @Autowired
+    protected EntityManager entityManager;
+
+    static Money FIVE_MILLION_USD = new Money("USD", new BigDecimal("5000000.00"));
+
+    /**
+     * Saves a contract with the given number of line items and deliveries where the first half of the line items are
+     * round robin assigned to the deliveries.
+     */
+    private void saveContract(String name, int lineItems, int deliveries) {
+        final Product product = new Product("DA-" + name, "Heavy Tank", FIVE_MILLION_USD);
+        productService.save(product);
+        final Contract contract = new Contract(name);
+        for( int d = 0; d < deliveries; d++ ) {
+            contract.createDelivery(new Date(), "Depot " + d);
+        }
+        for( int l = 0; l < lineItems; l++ ) {
+            final LineItem lineItem = contract.createLineItem(product, 1);
+            if( l < lineItems / 2 ) {
+                contract.addLineItemToDelivery(lineItem, contract.getDeliveries().get(l % deliveries));
+            }
+        }
+        contractService.save(contract);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private Contract reload(String name) {
+        entityManager.flush();
+        entityManager.clear();
+        return contractService.loadByName(name);
+    }
+
+    private int joinRows(Contract contract) {
+        return new JdbcTemplate(dataSource).queryForObject(
+                "select count(*) from DELIVERY_LINEITEM where CONTRACT_ID = ?", Integer.class, contract.getContractId());
+    }
+
+    /**
+     * Test that a plan that moves, assigns, unassigns and leaves alone line items is applied and saved.
+     */
+    @Test
+    public void testPlanIsAppliedAndSaved() throws Exception {
+        saveContract("Planned Contract", 4, 2);
+        final Contract contract = contractService.loadByName("Planned Contract");
+        final List<LineItem> lineItems = contract.getLineItems();
+        final Delivery first = contract.getDeliveries().get(0);
+        final Delivery second = contract.getDeliveries().get(1);
+        Assert.assertSame(first, lineItems.get(0).delivery.get());
+        Assert.assertSame(second, lineItems.get(1).delivery.get());
+
+        final Map<LineItem, Delivery> plan = new LinkedHashMap<>();
+        plan.put(lineItems.get(0), second); // moved
+        plan.put(lineItems.get(1), null);   // unassigned
+        plan.put(lineItems.get(2), first);  // assigned
+        plan.put(lineItems.get(3), null);   // already unassigned
+        Assert.assertEquals(3, contract.assignLineItemsToDeliveries(plan));
+
+        Assert.assertEquals(Collections.singletonList(lineItems.get(2)), first.getLineItems());
+        Assert.assertEquals(Collections.singletonList(lineItems.get(0)), second.getLineItems());
+        Assert.assertFalse(lineItems.get(1).delivery.isPresent());
+        contractService.save(contract);
+
+        final Contract loaded = reload("Planned Contract");
+        Assert.assertEquals("Depot 1", loaded.getLineItems().get(0).delivery.get().getLocation());
+        Assert.assertFalse(loaded.getLineItems().get(1).delivery.isPresent());
+        Assert.assertEquals("Depot 0", loaded.getLineItems().get(2).delivery.get().getLocation());
+        Assert.assertFalse(loaded.getLineItems().get(3).delivery.isPresent());
+        Assert.assertEquals(2, joinRows(loaded));
+    }
+
+    /**
+     * Test that a plan that names a line item of another contract is rejected without changing anything.
+     */
+    @Test
+    public void testForeignLineItemIsRejected() throws Exception {
+        saveContract("Own Contract", 2, 1);
+        saveContract("Other Contract", 2, 1);
+        final Contract contract = contractService.loadByName("Own Contract");
+        final Contract other = contractService.loadByName("Other Contract");
+
+        final Map<LineItem, Delivery> plan = new LinkedHashMap<>();
+        plan.put(contract.getLineItems().get(1), contract.getDeliveries().get(0));
+        plan.put(other.getLineItems().get(1), contract.getDeliveries().get(0));
+        try {
+            contract.assignLineItemsToDeliveries(plan);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertFalse(contract.getLineItems().get(1).delivery.isPresent());
+        Assert.assertEquals(1, contract.getDeliveries().get(0).getLineItems().size());
+    }
+
+    /**
+     * Test that a large plan reshuffles every line item and leaves one join row per assigned line item.
+     */
+    @Test
+    public void testLargePlan() throws Exception {
+        final int lineItems = 1000;
+        final int deliveries = 20;
+        saveContract("Large Plan Contract", lineItems, deliveries);
+        final Contract contract = contractService.loadByName("Large Plan Contract");
+
+        // move every assigned line item to the next delivery, assign the rest and unassign every tenth
+        final Map<LineItem, Delivery> plan = new HashMap<>();
+        for( int l = 0; l < lineItems; l++ ) {
+            plan.put(contract.getLineItems().get(l), l % 10 == 0 ? null : contract.getDeliveries().get((l + 1) % deliveries));
+        }
+        contract.assignLineItemsToDeliveries(plan);
+        contractService.save(contract);
+
+        final Contract loaded = reload("Large Plan Contract");
+        for( int l = 0; l < lineItems; l++ ) {
+            final Optional<Delivery> delivery = loaded.getLineItems().get(l).delivery;
+            Assert.assertEquals(l % 10 == 0 ? null : "Depot " + (l + 1) % deliveries,
+                    delivery.map(Delivery::getLocation).orElse(null));
+        }
+        Assert.assertEquals(lineItems * 9 / 10, loaded.getDeliveries().stream().mapToInt(d -> d.getLineItems().size()).sum());
+        Assert.assertEquals(lineItems * 9 / 10, joinRows(loaded));
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.simbo1905.rootobjects.contract;
+
+import com.github.simbo1905.rootobjects.Money;
+import com.github.simbo1905.rootobjects.product.Product;
+import com.github.simbo1905.rootobjects.product.ProductService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import javax.sql.DataSource;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the durable on disk Derby profile with the in-memory database used by the tests. It reports the time to
+ * start the application context and serve the first load, with and without the warm up, and the steady state
+ * latency of ContractService.loadByName. Run it with "mvn -Pbenchmark test". The system properties that it sets to
+ * configure the contexts are put back afterwards so that later tests in the same JVM are not affected.
+ */
+public class DurableDerbyBenchmark {
+
+    private static final Log LOG = LogFactory.getLog(DurableDerbyBenchmark.class);
+
+    static final String[] PROPERTIES = {"derby.durable.path", "derby.warmup.enabled", "hibernate.hbm2ddl.auto"};
+
+    private static final Map<String, String> saved = new HashMap<>();
+
+    @BeforeClass
+    public static void saveProperties() {
+        for( String key : PROPERTIES ) {
+            saved.put(key, System.getProperty(key));
+        }
+    }
+
+    @AfterClass
+    public static void restoreProperties() {
+        saved.forEach((key, value) -> {
+            if( value == null ) {
+                System.clearProperty(key);
+            } else {
+                System.setProperty(key, value);
+            }
+        });
+    }
+
+    static final String DB_PATH = "target/derby/benchmarkDB";
+    static final int PRODUCTS = 2000;
+    static final int CONTRACTS = 2000;
+    static final int LINE_ITEMS = 10;
+    static final int LOADS = 5000;
+
+    static final String[] DURABLE = {"classpath:durableDataSourceContext.xml", "classpath:application-context.xml"};
+    static final String[] IN_MEMORY = {"classpath:dataSourceContext.xml", "classpath:application-context.xml"};
+
+    @Test
+    public void benchmark() throws Exception {
+        System.setProperty("derby.durable.path", DB_PATH);
+        FileSystemUtils.deleteRecursively(new File(DB_PATH));
+
+        // create the schema and the data then shut the database down so that the next boot starts cold
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(DURABLE)) {
+            seed(context);
+        }
+        shutdown("jdbc:derby:" + DB_PATH + ";shutdown=true");
+        System.setProperty("hibernate.hbm2ddl.auto", "validate");
+
+        System.setProperty("derby.warmup.enabled", "false");
+        run("durable cold", DURABLE, false);
+        shutdown("jdbc:derby:" + DB_PATH + ";shutdown=true");
+
+        System.setProperty("derby.warmup.enabled", "true");
+        run("durable warm", DURABLE, false);
+        shutdown("jdbc:derby:" + DB_PATH + ";shutdown=true");
+
+        // each in-memory context has a database of its own which is dropped once it is closed
+        shutdown(run("in-memory", IN_MEMORY, true).replace(";create=true", "") + ";drop=true");
+    }
+
+    /**
+     * Returns the url of the database that was used.
+     */
+    private String run(String label, String[] locations, boolean seed) throws SQLException {
+        final long started = System.nanoTime();
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(locations)) {
+            final long startup = System.nanoTime() - started;
+            if( seed ) seed(context);
+            final ContractService contractService = context.getBean(ContractService.class);
+
+            final long firstStarted = System.nanoTime();
+            contractService.loadByName("Contract 0");
+            final long first = System.nanoTime() - firstStarted;
+
+            final Random random = new Random(42);
+            final long[] latencies = new long[LOADS];
+            for( int i = 0; i < LOADS; i++ ) {
+                final String name = "Contract " + random.nextInt(CONTRACTS);
+                final long loadStarted = System.nanoTime();
+                contractService.loadByName(name).getTotalCost();
+                latencies[i] = System.nanoTime() - loadStarted;
+            }
+            Arrays.sort(latencies);
+            LOG.info(String.format(
+                    "%-12s startup %6d ms, first load %6.2f ms, loadByName p50 %6.3f ms p99 %6.3f ms mean %6.3f ms",
+                    label, startup / 1_000_000, first / 1e6, latencies[LOADS / 2] / 1e6,
+                    latencies[LOADS * 99 / 100] / 1e6, Arrays.stream(latencies).average().getAsDouble() / 1e6));
+            try (Connection connection = context.getBean(DataSource.class).getConnection()) {
+                return connection.getMetaData().getURL();
+            }
+        }
+    }
+
+    private void seed(ClassPathXmlApplicationContext context) {
+        final ProductService productService = context.getBean(ProductService.class);
+        final ContractService contractService = context.getBean(ContractService.class);
+        final Product[] products = new Product[PRODUCTS];
+        for( int i = 0; i < PRODUCTS; i++ ) {
+            products[i] = new Product("SKU" + i, "Product " + i, new Money("USD", new BigDecimal("10.00")));
+            productService.save(products[i]);
+        }
+        for( int c = 0; c < CONTRACTS; c++ ) {
+            final Contract contract = new Contract("Contract " + c);
+            final Delivery delivery = contract.createDelivery(new Date(), "London");
+            for( int l = 0; l < LINE_ITEMS; l++ ) {
+                final LineItem lineItem = contract.createLineItem(products[(c * LINE_ITEMS + l) % PRODUCTS], l + 1);
+                if( l % 2 == 0 ) contract.addLineItemToDelivery(lineItem, delivery);
+            }
+            contractService.save(contract);
+        }
+    }
+
+    private static void shutdown(String url) {
+        try {
+            DriverManager.getConnection(url);
+        } catch (SQLException e) {
+            // derby reports a successful shutdown or drop as an exception
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.simbo1905.rootobjects.product;
+
+import com.github.simbo1905.rootobjects.Money;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:dataSourceContext.xml","classpath:application-context.xml"})
+@Transactional
+public class ProductUpsertTest {
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected EntityManager entityManager;
+
+    static Money usd(String amount) {
+        return new Money("USD", new BigDecimal(amount));
+    }
+
+    /**
+     * Test that a feed inserts new products and updates changed ones across several chunks and records the prices.
+     */
+    @Test
+    public void testUpsertInsertsAndUpdates() throws Exception {
+        productService.setUpsertChunkSize(7);
+        final List<Product> feed = new ArrayList<>();
+        for( int i = 0; i < 20; i++ ) {
+            feed.add(new Product("PU-" + i, "Item " + i, usd("100.00")));
+        }
+        final UpsertReport inserted = productService.upsertAll(feed, new Date());
+        Assert.assertEquals(20, inserted.getRows());
+        Assert.assertEquals(20, inserted.getInserted());
+        Assert.assertEquals(0, inserted.getUpdated());
+        Assert.assertEquals(20, inserted.getPricesRecorded());
+
+        final List<Product> changes = new ArrayList<>();
+        changes.add(new Product("PU-0", "Item 0", usd("150.00")));
+        changes.add(new Product("PU-1", "Renamed 1", usd("100.00")));
+        changes.add(new Product("PU-2", "Item 2", usd("100")));
+        changes.add(new Product("PU-20", "Item 20", usd("200.00")));
+        final UpsertReport updated = productService.upsertAll(changes, new Date());
+        Assert.assertEquals(1, updated.getInserted());
+        Assert.assertEquals(2, updated.getUpdated());
+        Assert.assertEquals(1, updated.getUnchanged());
+        Assert.assertEquals(2, updated.getPricesRecorded());
+
+        Assert.assertEquals(0, usd("150.00").getAmount().compareTo(productService.findBySku("PU-0").getPrice().getAmount()));
+        Assert.assertEquals("Renamed 1", productService.findBySku("PU-1").getDescription());
+        Assert.assertNotNull(productService.findBySku("PU-20"));
+    }
+
+    /**
+     * Test that when a SKU appears twice in a feed the last row wins.
+     */
+    @Test
+    public void testLastRowWins() throws Exception {
+        final UpsertReport report = productService.upsertAll(Arrays.asList(
+                new Product("PU-DUP", "First", usd("1.00")),
+                new Product("PU-DUP", "Second", usd("2.00"))), new Date());
+        Assert.assertEquals(1, report.getInserted());
+        Assert.assertEquals(1, report.getUpdated());
+        Assert.assertEquals("Second", productService.findBySku("PU-DUP").getDescription());
+    }
+
+    /**
+     * Test that the price history answers the price in effect at a given time.
+     */
+    @Test
+    public void testPriceAt() throws Exception {
+        final long now = System.currentTimeMillis();
+        productService.upsertAll(Arrays.asList(new Product("PU-HIST", "Jeep", usd("10.00"))), new Date(now - 2000));
+        productService.upsertAll(Arrays.asList(new Product("PU-HIST", "Jeep", usd("12.00"))), new Date(now - 1000));
+        final Product jeep = productService.findBySku("PU-HIST");
+        Assert.assertEquals(0, new BigDecimal("10.00").compareTo(
+                productService.priceAt(jeep, new Date(now - 1500)).get().getAmount()));
+        Assert.assertEquals(0, new BigDecimal("12.00").compareTo(
+                productService.priceAt(jeep, new Date(now)).get().getAmount()));
+        // before any history there is no price
+        Assert.assertFalse(productService.priceAt(jeep, new Date(now - 5000)).isPresent());
+    }
+
+    /**
+     * Test that a product without a description can be updated.
+     */
+    @Test
+    public void testNullDescriptionIsUpdated() throws Exception {
+        productService.upsertAll(Arrays.asList(new Product("PU-NULL", null, usd("1.00"))), new Date());
+        final UpsertReport report = productService.upsertAll(Arrays.asList(
+                new Product("PU-NULL", "Described", usd("1.00"))), new Date());
+        Assert.assertEquals(1, report.getUpdated());
+        Assert.assertEquals("Described", productService.findBySku("PU-NULL").getDescription());
+    }
+
+    /**
+     * Test that an upsert within the transaction of the caller does not detach the entities of the caller.
+     */
+    @Test
+    public void testCallerEntitiesStayManaged() throws Exception {
+        productService.upsertAll(Arrays.asList(new Product("PU-HELD", "Held", usd("1.00"))), new Date());
+        final Product held = productService.findBySku("PU-HELD");
+        productService.upsertAll(Arrays.asList(new Product("PU-OTHER", "Other", usd("1.00"))), new Date());
+        Assert.assertTrue(entityManager.contains(held));
+    }
+}